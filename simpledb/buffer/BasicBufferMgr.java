@@ -1,5 +1,6 @@
 package simpledb.buffer;
 
+import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import java.util.HashMap;
 
@@ -48,6 +49,62 @@ class BasicBufferMgr {
          buff.flush();
    }
    
+   /**
+    * Flushes the dirty buffers whose earliest unflushed
+    * modification precedes the specified LSN.
+    * @param lsn the LSN
+    */
+   synchronized void flushOlderThan(long lsn) {
+      for (Buffer buff : bufferpool) {
+         long reclsn = buff.recoveryLSN();
+         if (reclsn >= 0 && reclsn < lsn)
+            buff.flush();
+      }
+   }
+   
+   /**
+    * Truncates the specified file to the specified number of blocks,
+    * discarding the buffers of the removed blocks without writing them.
+    * Nothing is done if one of those buffers is pinned.
+    * @param filename the name of the file
+    * @param nblocks the number of blocks that remain
+    * @return true if the file was truncated
+    */
+   synchronized boolean truncate(String filename, int nblocks) {
+      for (Buffer buff : bufferpool)
+         if (buff.isPinned() && isRemoved(buff.block(), filename, nblocks))
+            return false;
+      for (Buffer buff : bufferpool) {
+         if (isRemoved(buff.block(), filename, nblocks)) {
+            unMapBlock(buff);
+            buff.discard();
+         }
+      }
+      SimpleDB.fileMgr().truncate(filename, nblocks);
+      return true;
+   }
+   
+   private boolean isRemoved(Block blk, String filename, int nblocks) {
+      return blk != null && blk.fileName().equals(filename) && blk.number() >= nblocks;
+   }
+   
+   /**
+    * Returns the smallest recovery LSN of the dirty buffers,
+    * that is, the earliest log record whose modification
+    * may not yet be on disk.
+    * Returns -1 if no buffer has such a modification.
+    * @return the minimum recovery LSN, or -1
+    */
+   synchronized long minRecoveryLSN() {
+      long min = -1;
+      for (Buffer buff : bufferpool) {
+         long reclsn = buff.recoveryLSN();
+         if (reclsn >= 0 && (min < 0 || reclsn < min))
+            min = reclsn;
+      }
+      return min;
+   }
+   
    /**
     * Pins a buffer to the specified block. 
     * If there is already a buffer assigned to that block
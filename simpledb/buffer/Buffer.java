@@ -1,11 +1,5 @@
 package simpledb.buffer;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Scanner;
-
 import simpledb.server.SimpleDB;
 import simpledb.file.*;
 
@@ -20,20 +14,17 @@ import simpledb.file.*;
  * @author Edward Sciore
  * 
  * @author Modified by Kaustubh Sant to implement Generic Clock replacement policy
- * @author Modified by Nupur Mallik to add the saveBlock and the restoreBlock methods
  */
 
 public class Buffer {
    private Page contents = new Page();
-   private Block blk = null,newblk;
+   private Block blk = null;
    private int pins = 0;
    private int refbit;	//reference counter
    private int refcounter;
    private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
-   //File saveFilename = new File("C:\\Users\\Nupur\\Softwares\\saveBlock.txt");
-   String saveFilename= "MyFile.txt";
-   PageFormatter fmtr1 = null;
+   private long logSequenceNumber = -1; // negative means no corresponding log record
+   private long recoveryLSN = -1; // LSN of the first log record since the last flush
 
    /**
     * Creates a new buffer, wrapping a new 
@@ -113,10 +104,10 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
+   public synchronized void setInt(int offset, int val, int txnum, long lsn) {
       modifiedBy = txnum;
       if (lsn >= 0)
-	      logSequenceNumber = lsn;
+	      setLSN(lsn);
       contents.setInt(offset, val);
    }
 
@@ -134,13 +125,27 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
+   public synchronized void setString(int offset, String val, int txnum, long lsn) {
       modifiedBy = txnum;
       if (lsn >= 0)
-	      logSequenceNumber = lsn;
+	      setLSN(lsn);
       contents.setString(offset, val);
    }
 
+   /**
+    * Marks the page as modified by the specified transaction,
+    * whose modification is described by the specified log record.
+    * This is used when the page is modified without
+    * a log record for each value, as by a bulk load.
+    * @param txnum the id of the transaction performing the modification
+    * @param lsn the LSN of the corresponding log record
+    */
+   public synchronized void setModified(int txnum, long lsn) {
+      modifiedBy = txnum;
+      if (lsn >= 0)
+         setLSN(lsn);
+   }
+
    /**
     * Returns a reference to the disk block
     * that the buffer is pinned to.
@@ -157,14 +162,52 @@ public class Buffer {
     * record has been written to disk prior to writing
     * the page to disk.
     */
-   void flush() {
+   synchronized void flush() {
       if (modifiedBy >= 0) {
     	 SimpleDB.logMgr().flush(logSequenceNumber);
          contents.write(blk);
          modifiedBy = -1;
+         recoveryLSN = -1;
       }
    }
 
+   /**
+    * Detaches the buffer from its block without writing
+    * the page, because the block has been removed from its file.
+    * The buffer is then the first candidate for replacement.
+    */
+   synchronized void discard() {
+      blk = null;
+      modifiedBy = -1;
+      logSequenceNumber = -1;
+      recoveryLSN = -1;
+      refbit = 0;
+   }
+
+   /**
+    * Returns the LSN of the earliest log record whose
+    * modification has not yet been written to disk.
+    * A negative value means that the page has no such
+    * modification.
+    * @return the recovery LSN of the buffer
+    */
+   synchronized long recoveryLSN() {
+      return recoveryLSN;
+   }
+
+   /**
+    * Records the LSN of a modification.
+    * Transactions modifying different records of the page
+    * may write their log records in one order and
+    * modify the page in the other, so the buffer keeps
+    * the largest and smallest LSNs that it has been given.
+    */
+   private void setLSN(long lsn) {
+      logSequenceNumber = Math.max(logSequenceNumber, lsn);
+      if (recoveryLSN < 0 || lsn < recoveryLSN)
+         recoveryLSN = lsn;
+   }
+
    /**
     * Increases the buffer's pin count.
     */
@@ -246,31 +289,4 @@ public class Buffer {
       pins = 0;
       refbit = -1;
    }
-
-   /**
-    * Initializes the buffer's page according to the specified formatter,
-    * and copies the contents of the buffer to a new block in the file of saved blocks.
-    * If the buffer was dirty, then the contents
-    * of the previous page are first written to disk.
-    * @param fmtr a page formatter, used to initialize the page
-    */
-   public Block saveBlock(Block blk) {
-	   newblk = contents.append(saveFilename);
-	   return newblk;
-   }
-   
-   /**
-    * Initializes the buffer's page according to the specified formatter,
-    * and copies the contents of the buffer to a new block in the file of saved blocks.
-    * If the buffer was dirty, then the contents
-    * of the previous page are first written to disk.
-    * @param filename the name of the file
-    * @param fmtr a page formatter, used to initialize the page
-    */
-   public void restoreBlock(Block newblk){
-	   contents.read(newblk);
-	   SimpleDB.logMgr().flush(logSequenceNumber);
-       contents.write(blk);
-   }
-
-}
\ No newline at end of file
+}
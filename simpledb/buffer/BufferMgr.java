@@ -110,6 +110,36 @@ public class BufferMgr {
       bufferMgr.flushAll(txnum);
    }
    
+   /**
+    * Flushes the dirty buffers whose earliest unflushed
+    * modification precedes the specified LSN.
+    * @param lsn the LSN
+    */
+   public void flushOlderThan(long lsn) {
+      bufferMgr.flushOlderThan(lsn);
+   }
+   
+   /**
+    * Truncates the specified file to the specified number of blocks,
+    * discarding the buffers of the removed blocks.
+    * The file is not truncated if one of those blocks is pinned.
+    * @param filename the name of the file
+    * @param nblocks the number of blocks that remain
+    * @return true if the file was truncated
+    */
+   public synchronized boolean truncate(String filename, int nblocks) {
+      return bufferMgr.truncate(filename, nblocks);
+   }
+   
+   /**
+    * Returns the earliest LSN whose modification may not
+    * yet be on disk, or -1 if no buffer is dirty.
+    * @return the minimum recovery LSN of the buffer pool
+    */
+   public long minRecoveryLSN() {
+      return bufferMgr.minRecoveryLSN();
+   }
+   
    /**
     * Returns the number of available (ie unpinned) buffers.
     * @return the number of available buffers
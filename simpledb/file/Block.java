@@ -39,6 +39,8 @@ public class Block {
    }
    
    public boolean equals(Object obj) {
+      if (!(obj instanceof Block))
+         return false;
       Block blk = (Block) obj;
       return filename.equals(blk.filename) && blknum == blk.blknum;
    }
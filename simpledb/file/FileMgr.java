@@ -16,10 +16,15 @@ import java.util.*;
  * and appending the contents of a byte buffer to the end of a file.
  * These methods are called exclusively by the class {@link simpledb.file.Page Page},
  * and are thus package-private.
+ * Reads and writes of existing blocks are not serialized,
+ * so that several threads can access the disk at once.
  * The class also contains two public methods:
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * Methods {@link #fileNames(String) fileNames}, {@link #rename(String, String) rename}
+ * and {@link #delete(String) delete} are called by the log manager
+ * to manage its segment files.
  * @author Edward Sciore
  */
 public class FileMgr {
@@ -56,11 +61,15 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
       try {
          bb.clear();
          FileChannel fc = getFile(blk.fileName());
          fc.read(bb, blk.number() * BLOCK_SIZE);
+         // a block beyond the end of the file, such as one
+         // removed by a truncation, reads as zeros
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
@@ -72,7 +81,7 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
       try {
          bb.rewind();
          FileChannel fc = getFile(blk.fileName());
@@ -112,6 +121,67 @@ public class FileMgr {
       }
    }
 
+   /**
+    * Truncates the specified file to the specified number of blocks.
+    * @param filename the name of the file
+    * @param nblocks the number of blocks that remain
+    */
+   public synchronized void truncate(String filename, int nblocks) {
+      try {
+         FileChannel fc = getFile(filename);
+         fc.truncate((long) nblocks * BLOCK_SIZE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot truncate " + filename);
+      }
+   }
+
+   /**
+    * Returns the names of the files in the database directory
+    * that begin with the specified prefix.
+    * @param prefix the prefix of the file names
+    * @return the names of the matching files
+    */
+   public synchronized List<String> fileNames(String prefix) {
+      List<String> result = new ArrayList<String>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+            result.add(filename);
+      return result;
+   }
+
+   /**
+    * Renames the specified file, closing it first if it is open.
+    * @param oldname the current name of the file
+    * @param newname the new name of the file
+    */
+   public synchronized void rename(String oldname, String newname) {
+      try {
+         close(oldname);
+         close(newname);
+         File from = new File(dbDirectory, oldname);
+         if (!from.renameTo(new File(dbDirectory, newname)))
+            throw new RuntimeException("cannot rename " + oldname);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot rename " + oldname);
+      }
+   }
+
+   /**
+    * Deletes the specified file, closing it first if it is open.
+    * @param filename the name of the file
+    */
+   public synchronized void delete(String filename) {
+      try {
+         close(filename);
+         new File(dbDirectory, filename).delete();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot delete " + filename);
+      }
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
@@ -130,7 +200,7 @@ public class FileMgr {
     * @return the file channel associated with the open file.
     * @throws IOException
     */
-   private FileChannel getFile(String filename) throws IOException {
+   private synchronized FileChannel getFile(String filename) throws IOException {
       FileChannel fc = openFiles.get(filename);
       if (fc == null) {
          File dbTable = new File(dbDirectory, filename);
@@ -140,4 +210,16 @@ public class FileMgr {
       }
       return fc;
    }
+
+   /**
+    * Closes the specified file if it is open,
+    * and removes its file channel from the map.
+    * @param filename the specified filename
+    * @throws IOException
+    */
+   private void close(String filename) throws IOException {
+      FileChannel fc = openFiles.remove(filename);
+      if (fc != null)
+         fc.close();
+   }
 }
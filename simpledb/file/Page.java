@@ -52,6 +52,11 @@ public class Page {
     */
    public static final int INT_SIZE = Integer.SIZE / Byte.SIZE;
    
+   /**
+    * The size of a long integer in bytes.
+    */
+   public static final int LONG_SIZE = Long.SIZE / Byte.SIZE;
+   
    /**
     * The maximum size, in bytes, of a string of length n.
     * A string is represented as the encoding of its characters,
@@ -131,6 +136,28 @@ public class Page {
       contents.putInt(val);
    }
    
+   /**
+    * Returns the long integer value at a specified offset of the page.
+    * If a long integer was not stored at that location,
+    * the behavior of the method is unpredictable.
+    * @param offset the byte offset within the page
+    * @return the long integer value at that offset
+    */
+   public synchronized long getLong(int offset) {
+      contents.position(offset);
+      return contents.getLong();
+   }
+   
+   /**
+    * Writes a long integer to the specified offset on the page.
+    * @param offset the byte offset within the page
+    * @param val the long integer to be written to the page
+    */
+   public synchronized void setLong(int offset, long val) {
+      contents.position(offset);
+      contents.putLong(val);
+   }
+   
    /**
     * Returns the string value at the specified offset of the page.
     * If a string was not stored at that location,
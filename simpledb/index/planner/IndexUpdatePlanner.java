@@ -25,17 +25,16 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       Plan p = new TablePlan(tblname, tx);
       
       // first, insert the record
-      UpdateScan s = (UpdateScan) p.open();
-      s.insert();
+      TableScan s = (TableScan) p.open();
+      s.insertRow(data.fields(), data.vals());
       RID rid = s.getRid();
       
-      // then modify each field, inserting an index record if appropriate
+      // then insert an index record for each indexed field
       Map<String,IndexInfo> indexes = SimpleDB.mdMgr().getIndexInfo(tblname, tx);
       Iterator<Constant> valIter = data.vals().iterator();
       for (String fldname : data.fields()) {
          Constant val = valIter.next();
          System.out.println("Modify field " + fldname + " to val " + val);
-         s.setVal(fldname, val);
          
          IndexInfo ii = indexes.get(fldname);
          if (ii != null) {
@@ -104,7 +103,7 @@ public class IndexUpdatePlanner implements UpdatePlanner {
    }
    
    public int executeCreateTable(CreateTableData data, Transaction tx) {
-      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
+      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), data.format(), tx);
       return 0;
    }
    
@@ -117,4 +116,12 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       SimpleDB.mdMgr().createIndex(data.indexName(), data.tableName(), data.fieldName(), tx);
       return 0;
    }
+   
+   public int executeVacuum(VacuumData data, Transaction tx) {
+      return new TableCompactor(data.tableName()).compact();
+   }
+   
+   public int executeCluster(ClusterData data, Transaction tx) {
+      return new TableClusterer(data.tableName(), data.fieldName()).cluster(tx);
+   }
 }
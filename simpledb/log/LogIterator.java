@@ -1,6 +1,6 @@
 package simpledb.log;
 
-import static simpledb.file.Page.INT_SIZE;
+import static simpledb.file.Page.*;
 import simpledb.file.*;
 import java.util.Iterator;
 
@@ -11,7 +11,8 @@ import java.util.Iterator;
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<BasicLogRecord> {
-   private Block blk;
+   private LogMgr logMgr;
+   private long blknum, firstblk;
    private Page pg = new Page();
    private int currentrec;
    
@@ -20,10 +21,15 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * positioned after the last log record.
     * This constructor is called exclusively by
     * {@link LogMgr#iterator()}.
+    * @param logMgr the log manager
+    * @param blknum the number of the last block of the log
+    * @param firstblk the number of the earliest block still in the log
     */
-   LogIterator(Block blk) {
-      this.blk = blk;
-      pg.read(blk);
+   LogIterator(LogMgr logMgr, long blknum, long firstblk) {
+      this.logMgr = logMgr;
+      this.blknum = blknum;
+      this.firstblk = firstblk;
+      pg.read(logMgr.logBlock(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
    
@@ -33,7 +39,7 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentrec>0 || blk.number()>0;
+      return currentrec>0 || blknum>firstblk;
    }
    
    /**
@@ -47,7 +53,8 @@ class LogIterator implements Iterator<BasicLogRecord> {
       if (currentrec == 0) 
          moveToNextBlock();
       currentrec = pg.getInt(currentrec);
-      return new BasicLogRecord(pg, currentrec+INT_SIZE);
+      int pos = currentrec + INT_SIZE;
+      return new BasicLogRecord(pg, pos, blknum * BLOCK_SIZE + pos);
    }
    
    public void remove() {
@@ -59,8 +66,8 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * and positions it after the last record in that block.
     */
    private void moveToNextBlock() {
-      blk = new Block(blk.fileName(), blk.number()-1);
-      pg.read(blk);
+      blknum--;
+      pg.read(logMgr.logBlock(blknum));
       currentrec = pg.getInt(LogMgr.LAST_POS);
    }
 }
@@ -10,10 +10,15 @@ import java.util.*;
  * The low-level log manager.
  * This log manager is responsible for writing log records
  * into a log file.
- * A log record can be any sequence of integer and string values.
+ * A log record can be any sequence of integer, long integer and string values.
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * The log is stored as a sequence of segment files
+ * of a fixed number of blocks each.
+ * When the records in a segment are no longer needed,
+ * the segment file is kept as a spare and reused
+ * for a later segment, so the log does not grow without bound.
  * @author Edward Sciore
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
@@ -23,14 +28,53 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public static final int LAST_POS = 0;
 
+   /**
+    * The location of the number of the block within the log,
+    * which is the last long integer in the page.
+    * The number identifies blocks written to a reused segment file,
+    * as opposed to the stale blocks left over from its previous use.
+    * Block numbers keep growing as segments are reused,
+    * so they are stored as long integers.
+    */
+   public static final int BLKNUM_POS = BLOCK_SIZE - LONG_SIZE;
+
+   /**
+    * The number of blocks in each log segment file.
+    */
+   public static final int SEGMENT_BLOCKS = 64;
+
+   /**
+    * The maximum number of unneeded segment files that are
+    * kept for reuse; any others are deleted.
+    */
+   public static final int MAX_SPARE_SEGMENTS = 4;
+
+   private static final String SPARE = "spare";
+
+   /**
+    * The number of recently-filled log blocks that are kept in memory,
+    * in addition to the current block.
+    */
+   public static final int LOG_BUFFER_BLOCKS = 8;
+
    private String logfile;
    private Page mypage = new Page();
-   private Block currentblk;
+   private long currentblk = -1;
    private int currentpos;
+   private long flushedLSN;
+   private long firstseg = 0;
+   private LinkedList<String> spares = new LinkedList<String>();
+   private Map<Long,Page> recentPages = new LinkedHashMap<Long,Page>() {
+      protected boolean removeEldestEntry(Map.Entry<Long,Page> eldest) {
+         return size() > LOG_BUFFER_BLOCKS;
+      }
+   };
 
    /**
     * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
+    * The segments of the log are the files named by the
+    * log file name followed by a segment number.
+    * If there are no segments, the first segment is created
     * with an empty first block.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
@@ -43,26 +87,73 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public LogMgr(String logfile) {
       this.logfile = logfile;
-      int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0)
+      long lastseg = -1;
+      String prefix = logfile + ".";
+      for (String filename : SimpleDB.fileMgr().fileNames(prefix)) {
+         String suffix = filename.substring(prefix.length());
+         if (suffix.startsWith(SPARE))
+            spares.add(filename);
+         else {
+            long seg = Long.parseLong(suffix);
+            if (lastseg < 0 || seg < firstseg)
+               firstseg = seg;
+            lastseg = Math.max(lastseg, seg);
+         }
+      }
+      if (lastseg < 0)
          appendNewBlock();
       else {
-         currentblk = new Block(logfile, logsize-1);
-         mypage.read(currentblk);
+         currentblk = findLastBlock(lastseg);
+         mypage.read(logBlock(currentblk));
          currentpos = getLastRecordPosition() + INT_SIZE;
       }
+      flushedLSN = currentLSN();
    }
 
    /**
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * Nothing is written if the record is already on disk.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
+   public synchronized void flush(long lsn) {
+      if (lsn >= flushedLSN)
          flush();
    }
+   
+   /**
+    * Returns the LSN up to which the log is on disk.
+    * Every log record having a smaller LSN has been written to disk.
+    * @return the LSN of the end of the flushed log
+    */
+   public synchronized long flushedLSN() {
+      return flushedLSN;
+   }
+
+   /**
+    * Returns the log record having the specified LSN.
+    * If the record is in the current block or in one of the
+    * recently-filled blocks, it is read from memory;
+    * otherwise its block is read from its segment file.
+    * @param lsn the LSN of a log record
+    * @return the log record at that LSN
+    */
+   public synchronized BasicLogRecord read(long lsn) {
+      long blknum = lsn / BLOCK_SIZE;
+      if (blknum / SEGMENT_BLOCKS < firstseg)
+         throw new RuntimeException("log record " + lsn + " has been discarded");
+      Page pg;
+      if (blknum == currentblk)
+         pg = mypage;
+      else if (recentPages.containsKey(blknum))
+         pg = recentPages.get(blknum);
+      else {
+         pg = new Page();
+         pg.read(logBlock(blknum));
+      }
+      return new BasicLogRecord(pg, (int) (lsn % BLOCK_SIZE), lsn);
+   }
 
    /**
     * Returns an iterator for the log records,
@@ -71,47 +162,107 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public synchronized Iterator<BasicLogRecord> iterator() {
       flush();
-      return new LogIterator(currentblk);
+      return new LogIterator(this, currentblk, firstseg * SEGMENT_BLOCKS);
+   }
+
+   /**
+    * Declares that the log records preceding the specified LSN
+    * are no longer needed, neither for rollback nor for recovery.
+    * Every segment all of whose blocks precede that LSN
+    * is removed from the log.
+    * Up to {@link #MAX_SPARE_SEGMENTS} of them are renamed
+    * and kept for reuse; the others are deleted.
+    * The current segment is never removed.
+    * @param lsn the LSN of the earliest needed log record
+    */
+   public synchronized void truncate(long lsn) {
+      long lastseg = Math.min(lsn / BLOCK_SIZE, currentblk) / SEGMENT_BLOCKS;
+      FileMgr fm = SimpleDB.fileMgr();
+      while (firstseg < lastseg) {
+         String segname = segmentName(firstseg);
+         if (spares.size() < MAX_SPARE_SEGMENTS) {
+            String spare = logfile + "." + SPARE + firstseg;
+            fm.rename(segname, spare);
+            spares.add(spare);
+         }
+         else
+            fm.delete(segname);
+         firstseg++;
+      }
+   }
+
+   /**
+    * Returns the disk block holding the specified block of the log.
+    * @param blknum the number of the block within the log
+    * @return the corresponding block of its segment file
+    */
+   Block logBlock(long blknum) {
+      return new Block(segmentName(blknum / SEGMENT_BLOCKS), (int) (blknum % SEGMENT_BLOCKS));
    }
 
    /**
     * Appends a log record to the file.
-    * The record contains an arbitrary array of strings and integers.
+    * The record contains an arbitrary array of strings, integers and long integers.
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
+    * A record that is too large to fit in a single log block is rejected.
     * @param rec the list of values
-    * @return the LSN of the final value
+    * @return the LSN of the record
     */
-   public synchronized int append(Object[] rec) {
-      int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
-      for (Object obj : rec)
-         recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
+   public synchronized long append(Object[] rec) {
+      if (!fits(rec))
+         throw new RuntimeException("log record does not fit in a log block");
+      int recsize = recordSize(rec);
+      if (currentpos + recsize >= BLKNUM_POS){ // the log record doesn't fit,
          flush();        // so move to the next block.
          appendNewBlock();
       }
+      long lsn = currentblk * BLOCK_SIZE + currentpos;
       for (Object obj : rec)
          appendVal(obj);
       finalizeRecord();
-      return currentLSN();
+      return lsn;
+   }
+
+   /**
+    * Returns true if the specified log record
+    * is small enough to fit in a single log block.
+    * @param rec the list of values
+    * @return true if the record can be appended
+    */
+   public boolean fits(Object[] rec) {
+      return INT_SIZE + recordSize(rec) < BLKNUM_POS;
+   }
+
+   /**
+    * Calculates the size of the specified record, including
+    * the integer that points to the previous log record.
+    */
+   private int recordSize(Object[] rec) {
+      int recsize = INT_SIZE;
+      for (Object obj : rec)
+         recsize += size(obj);
+      return recsize;
    }
 
    /**
     * Adds the specified value to the page at the position denoted by
     * currentpos.  Then increments currentpos by the size of the value.
-    * @param val the integer or string to be added to the page
+    * @param val the integer, long integer or string to be added to the page
     */
    private void appendVal(Object val) {
       if (val instanceof String)
          mypage.setString(currentpos, (String)val);
+      else if (val instanceof Long)
+         mypage.setLong(currentpos, (Long)val);
       else
          mypage.setInt(currentpos, (Integer)val);
       currentpos += size(val);
    }
 
    /**
-    * Calculates the size of the specified integer or string.
+    * Calculates the size of the specified integer, long integer or string.
     * @param val the value
     * @return the size of the value, in bytes
     */
@@ -120,34 +271,86 @@ public class LogMgr implements Iterable<BasicLogRecord> {
          String sval = (String) val;
          return STR_SIZE(sval.length());
       }
+      else if (val instanceof Long)
+         return LONG_SIZE;
       else
          return INT_SIZE;
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Returns the LSN of the end of the log, that is,
+    * the LSN that the next log record will have
+    * if it fits in the current block.
+    * As implemented, the LSN of a record is its byte position
+    * in the log, so that LSNs of records in the same
+    * block are distinct and increase in log order.
+    * LSNs are long integers, since the log is reused
+    * and its byte positions grow without bound.
+    * @return the LSN of the end of the log
     */
-   private int currentLSN() {
-      return currentblk.number();
+   public synchronized long currentLSN() {
+      return currentblk * BLOCK_SIZE + currentpos;
    }
 
    /**
     * Writes the current page to the log file.
     */
    private void flush() {
-      mypage.write(currentblk);
+      mypage.write(logBlock(currentblk));
+      flushedLSN = currentLSN();
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Keep the current page in memory as a recently-filled block,
+    * then start a new, empty page and write it to the log.
+    * If the new block begins a segment, a spare segment file
+    * is reused if there is one.
+    * The new block is written to the spare before the spare is
+    * renamed, so that the segment never appears in the log
+    * with stale contents.
     */
    private void appendNewBlock() {
+      if (currentblk >= 0) {
+         recentPages.put(currentblk, mypage);
+         mypage = new Page();
+      }
+      currentblk++;
+      mypage.setLong(BLKNUM_POS, currentblk);
       setLastRecordPosition(0);
       currentpos = INT_SIZE;
-      currentblk = mypage.append(logfile);
+      if (currentblk % SEGMENT_BLOCKS == 0 && !spares.isEmpty()) {
+         String spare = spares.removeFirst();
+         mypage.write(new Block(spare, 0));
+         SimpleDB.fileMgr().rename(spare, segmentName(currentblk / SEGMENT_BLOCKS));
+      }
+      else
+         flush();
+   }
+
+   /**
+    * Returns the number of the last block written to the
+    * specified segment.
+    * Blocks following it in the segment file, if any,
+    * are stale blocks from a previous use of the file.
+    * @param seg the number of the last segment
+    * @return the number of the last block of the log
+    */
+   private long findLastBlock(long seg) {
+      String segname = segmentName(seg);
+      int size = SimpleDB.fileMgr().size(segname);
+      long blknum = seg * SEGMENT_BLOCKS;
+      Page pg = new Page();
+      for (int i=1; i<size; i++) {
+         pg.read(new Block(segname, i));
+         if (pg.getLong(BLKNUM_POS) != blknum + 1)
+            break;
+         blknum++;
+      }
+      return blknum;
+   }
+
+   private String segmentName(long seg) {
+      return logfile + "." + seg;
    }
 
    /**
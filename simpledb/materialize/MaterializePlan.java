@@ -53,7 +53,7 @@ public class MaterializePlan implements Plan {
     */
    public int blocksAccessed() {
       // create a dummy TableInfo object to calculate record length
-      TableInfo ti = new TableInfo("", srcplan.schema());
+      TableInfo ti = new TableInfo("", TempTable.storedSchema(srcplan.schema()));
       double rpb = (double) (BLOCK_SIZE / ti.recordLength());
       return (int) Math.ceil(srcplan.recordsOutput() / rpb);
    }
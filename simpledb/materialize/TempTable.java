@@ -24,10 +24,25 @@ public class TempTable {
     */
    public TempTable(Schema sch, Transaction tx) {
       String tblname = nextTableName();
-      ti = new TableInfo(tblname, sch);
+      ti = new TableInfo(tblname, storedSchema(sch));
       this.tx = tx;
    }
    
+   /**
+    * Returns the schema in which a temporary table stores
+    * records of the specified schema.
+    * A temporary table has no dictionaries, and so
+    * stores the values of encoded fields in full.
+    * @param sch the schema of the records
+    * @return the schema of the temporary table
+    */
+   static Schema storedSchema(Schema sch) {
+      Schema result = new Schema();
+      for (String fldname : sch.fields())
+         result.addField(fldname, sch.type(fldname), sch.length(fldname));
+      return result;
+   }
+   
    /**
     * Opens a table scan for the temporary table.
     */
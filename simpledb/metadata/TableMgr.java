@@ -1,6 +1,7 @@
 package simpledb.metadata;
 
 import simpledb.tx.Transaction;
+import simpledb.file.Block;
 import simpledb.record.*;
 import java.util.*;
 
@@ -9,6 +10,13 @@ import java.util.*;
  * There are methods to create a table, save the metadata
  * in the catalog, and obtain the metadata of a
  * previously-created table.
+ * <p>
+ * The catalog of a database created by an earlier version
+ * of SimpleDB cannot be read: its tblcat has no format column,
+ * its fldcat has no encoded column, and the fields of
+ * its records, and of its indexes, are in a different order.
+ * Such a database is detected when it starts, and rejected;
+ * it must be created again, and its data reloaded.
  * @author Edward Sciore
  *
  */
@@ -33,6 +41,7 @@ public class TableMgr {
       Schema tcatSchema = new Schema();
       tcatSchema.addStringField("tblname", MAX_NAME);
       tcatSchema.addIntField("reclength");
+      tcatSchema.addIntField("format");
       tcatInfo = new TableInfo("tblcat", tcatSchema);
       
       Schema fcatSchema = new Schema();
@@ -41,27 +50,44 @@ public class TableMgr {
       fcatSchema.addIntField("type");
       fcatSchema.addIntField("length");
       fcatSchema.addIntField("offset");
+      fcatSchema.addIntField("encoded");
       fcatInfo = new TableInfo("fldcat", fcatSchema);
       
       if (isNew) {
          createTable("tblcat", tcatSchema, tx);
          createTable("fldcat", fcatSchema, tx);
       }
+      else
+         checkCatalog(tx);
    }
    
    /**
-    * Creates a new table having the specified name and schema.
+    * Creates a new table having the specified name and schema,
+    * in the fixed-slot format.
     * @param tblname the name of the new table
     * @param sch the table's schema
     * @param tx the transaction creating the table
     */
    public void createTable(String tblname, Schema sch, Transaction tx) {
-      TableInfo ti = new TableInfo(tblname, sch);
+      createTable(tblname, sch, TableInfo.FIXED, tx);
+   }
+   
+   /**
+    * Creates a new table having the specified name, schema,
+    * and storage format.
+    * @param tblname the name of the new table
+    * @param sch the table's schema
+    * @param format the {@link TableInfo#format() storage format} of the table
+    * @param tx the transaction creating the table
+    */
+   public void createTable(String tblname, Schema sch, int format, Transaction tx) {
+      TableInfo ti = new TableInfo(tblname, sch, format);
       // insert one record into tblcat
       RecordFile tcatfile = new RecordFile(tcatInfo, tx);
       tcatfile.insert();
       tcatfile.setString("tblname", tblname);
       tcatfile.setInt("reclength", ti.recordLength());
+      tcatfile.setInt("format", format);
       tcatfile.close();
       
       // insert a record into fldcat for each field
@@ -73,6 +99,7 @@ public class TableMgr {
          fcatfile.setInt   ("type",   sch.type(fldname));
          fcatfile.setInt   ("length", sch.length(fldname));
          fcatfile.setInt   ("offset", ti.offset(fldname));
+         fcatfile.setInt   ("encoded", sch.isEncoded(fldname) ? 1 : 0);
       }
       fcatfile.close();
    }
@@ -87,9 +114,11 @@ public class TableMgr {
    public TableInfo getTableInfo(String tblname, Transaction tx) {
       RecordFile tcatfile = new RecordFile(tcatInfo, tx);
       int reclen = -1;
+      int format = TableInfo.FIXED;
       while (tcatfile.next())
          if(tcatfile.getString("tblname").equals(tblname)) {
          reclen = tcatfile.getInt("reclength");
+         format = tcatfile.getInt("format");
          break;
       }
       tcatfile.close();
@@ -104,9 +133,47 @@ public class TableMgr {
          int fldlen     = fcatfile.getInt("length");
          int offset     = fcatfile.getInt("offset");
          offsets.put(fldname, offset);
-         sch.addField(fldname, fldtype, fldlen);
+         if (fcatfile.getInt("encoded") != 0)
+            sch.addEncodedStringField(fldname, fldlen);
+         else
+            sch.addField(fldname, fldtype, fldlen);
       }
       fcatfile.close();
-      return new TableInfo(tblname, sch, offsets, reclen);
+      return new TableInfo(tblname, sch, offsets, reclen, format);
+   }
+   
+   /**
+    * Throws an exception if the catalog of an existing database
+    * does not have the current layout.
+    * The first record of tblcat describes tblcat itself,
+    * and the second describes fldcat; in a catalog of
+    * another layout, they do not hold the expected values
+    * at the current offsets.
+    * A database whose catalog was never written has no records
+    * to check, and is accepted.
+    */
+   private void checkCatalog(Transaction tx) {
+      if (tx.size(tcatInfo.fileName()) == 0)
+         return;
+      RecordPage rp = RecordPage.open(new Block(tcatInfo.fileName(), 0), tcatInfo, tx);
+      try {
+         if (rp.next() && !(describes(rp, "tblcat", tcatInfo)
+                           && rp.next() && describes(rp, "fldcat", fcatInfo)))
+            throw new RuntimeException("the catalog of this database has the layout "
+                                       + "of an earlier version, which is not supported");
+      }
+      finally {
+         rp.close();
+      }
+   }
+   
+   private boolean describes(RecordPage rp, String tblname, TableInfo ti) {
+      try {
+         return rp.getInt("reclength") == ti.recordLength()
+               && rp.getString("tblname").equals(tblname);
+      }
+      catch (RuntimeException e) {
+         return false;  // the value at the offset of tblname is not a string
+      }
    }
-}
\ No newline at end of file
+}
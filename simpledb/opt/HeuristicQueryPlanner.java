@@ -25,8 +25,10 @@ public class HeuristicQueryPlanner implements QueryPlanner {
    public Plan createPlan(QueryData data, Transaction tx) {
       
       // Step 1:  Create a TablePlanner object for each mentioned table
+      Collection<String> fields = new HashSet<String>(data.fields());
+      fields.addAll(data.pred().fields());
       for (String tblname : data.tables()) {
-         TablePlanner tp = new TablePlanner(tblname, data.pred(), tx);
+         TablePlanner tp = new TablePlanner(tblname, data.pred(), fields, tx);
          tableplanners.add(tp);
       }
       
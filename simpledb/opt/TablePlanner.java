@@ -7,7 +7,7 @@ import simpledb.index.query.*;
 import simpledb.metadata.IndexInfo;
 import simpledb.multibuffer.MultiBufferProductPlan;
 import simpledb.server.SimpleDB;
-import java.util.Map;
+import java.util.*;
 
 /**
  * This class contains methods for planning a single table.
@@ -28,12 +28,14 @@ class TablePlanner {
     * and when indexes are useful.
     * @param tblname the name of the table
     * @param mypred the query predicate
+    * @param fields the fields read by the query
     * @param tx the calling transaction
     */
-   public TablePlanner(String tblname, Predicate mypred, Transaction tx) {
+   public TablePlanner(String tblname, Predicate mypred, Collection<String> fields, Transaction tx) {
       this.mypred  = mypred;
       this.tx  = tx;
       myplan   = new TablePlan(tblname, tx);
+      myplan.setFields(fields);
       myschema = myplan.schema();
       indexes  = SimpleDB.mdMgr().getIndexInfo(tblname, tx);
    }
@@ -0,0 +1,33 @@
+package simpledb.parse;
+
+/**
+ * Data for the SQL <i>cluster</i> statement.
+ */
+public class ClusterData {
+   private String tblname, fldname;
+   
+   /**
+    * Saves the name of the table to be reordered,
+    * and the name of the field to order it by.
+    */
+   public ClusterData(String tblname, String fldname) {
+      this.tblname = tblname;
+      this.fldname = fldname;
+   }
+   
+   /**
+    * Returns the name of the table to be reordered.
+    * @return the name of the table
+    */
+   public String tableName() {
+      return tblname;
+   }
+   
+   /**
+    * Returns the name of the field that the table is ordered by.
+    * @return the name of the clustering field
+    */
+   public String fieldName() {
+      return fldname;
+   }
+}
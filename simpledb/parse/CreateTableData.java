@@ -1,6 +1,7 @@
 package simpledb.parse;
 
 import simpledb.record.Schema;
+import simpledb.record.TableInfo;
 
 /**
  * Data for the SQL <i>create table</i> statement.
@@ -9,13 +10,22 @@ import simpledb.record.Schema;
 public class CreateTableData {
    private String tblname;
    private Schema sch;
+   private int format;
    
    /**
     * Saves the table name and schema.
     */
    public CreateTableData(String tblname, Schema sch) {
+      this(tblname, sch, TableInfo.FIXED);
+   }
+   
+   /**
+    * Saves the table name, schema, and storage format.
+    */
+   public CreateTableData(String tblname, Schema sch, int format) {
       this.tblname = tblname;
       this.sch = sch;
+      this.format = format;
    }
    
    /**
@@ -33,5 +43,13 @@ public class CreateTableData {
    public Schema newSchema() {
       return sch;
    }
+   
+   /**
+    * Returns the storage format of the new table.
+    * @return the {@link TableInfo#format() storage format}
+    */
+   public int format() {
+      return format;
+   }
 }
 
@@ -3,6 +3,7 @@ package simpledb.parse;
 import java.util.*;
 import simpledb.query.*;
 import simpledb.record.Schema;
+import simpledb.record.TableInfo;
 
 /**
  * The SimpleDB parser.
@@ -95,6 +96,10 @@ public class Parser {
          return delete();
       else if (lex.matchKeyword("update"))
          return modify();
+      else if (lex.matchKeyword("vacuum"))
+         return vacuum();
+      else if (lex.matchKeyword("cluster"))
+         return cluster();
       else
          return create();
    }
@@ -123,6 +128,23 @@ public class Parser {
       return new DeleteData(tblname, pred);
    }
    
+// Method for parsing vacuum commands
+   
+   public VacuumData vacuum() {
+      lex.eatKeyword("vacuum");
+      return new VacuumData(lex.eatId());
+   }
+   
+// Method for parsing cluster commands
+   
+   public ClusterData cluster() {
+      lex.eatKeyword("cluster");
+      String tblname = lex.eatId();
+      lex.eatKeyword("on");
+      String fldname = lex.eatId();
+      return new ClusterData(tblname, fldname);
+   }
+   
 // Methods for parsing insert commands
    
    public InsertData insert() {
@@ -184,7 +206,23 @@ public class Parser {
       lex.eatDelim('(');
       Schema sch = fieldDefs();
       lex.eatDelim(')');
-      return new CreateTableData(tblname, sch);
+      int format = TableInfo.FIXED;
+      if (lex.matchKeyword("using")) {
+         lex.eatKeyword("using");
+         format = storageFormat(lex.eatId());
+      }
+      return new CreateTableData(tblname, sch, format);
+   }
+   
+   private int storageFormat(String name) {
+      if (name.equals("fixed"))
+         return TableInfo.FIXED;
+      else if (name.equals("slotted"))
+         return TableInfo.SLOTTED;
+      else if (name.equals("pax"))
+         return TableInfo.PAX;
+      else
+         throw new BadSyntaxException();
    }
    
    private Schema fieldDefs() {
@@ -213,7 +251,12 @@ public class Parser {
          lex.eatDelim('(');
          int strLen = lex.eatIntConstant();
          lex.eatDelim(')');
-         schema.addStringField(fldname, strLen);
+         if (lex.matchKeyword("encoded")) {
+            lex.eatKeyword("encoded");
+            schema.addEncodedStringField(fldname, strLen);
+         }
+         else
+            schema.addStringField(fldname, strLen);
       }
       return schema;
    }
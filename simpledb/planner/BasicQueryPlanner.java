@@ -18,14 +18,20 @@ public class BasicQueryPlanner implements QueryPlanner {
     * and finally it projects on the field list. 
     */
    public Plan createPlan(QueryData data, Transaction tx) {
-      //Step 1: Create a plan for each mentioned table or view
+      //Step 1: Create a plan for each mentioned table or view,
+      //noting the fields that the query reads from each table
+      Collection<String> fields = new HashSet<String>(data.fields());
+      fields.addAll(data.pred().fields());
       List<Plan> plans = new ArrayList<Plan>();
       for (String tblname : data.tables()) {
          String viewdef = SimpleDB.mdMgr().getViewDef(tblname, tx);
          if (viewdef != null)
             plans.add(SimpleDB.planner().createQueryPlan(viewdef, tx));
-         else
-            plans.add(new TablePlan(tblname, tx));
+         else {
+            TablePlan tp = new TablePlan(tblname, tx);
+            tp.setFields(fields);
+            plans.add(tp);
+         }
       }
       
       //Step 2: Create the product of all table plans
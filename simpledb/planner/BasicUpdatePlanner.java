@@ -1,6 +1,5 @@
 package simpledb.planner;
 
-import java.util.Iterator;
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.parse.*;
@@ -41,19 +40,14 @@ public class BasicUpdatePlanner implements UpdatePlanner {
    
    public int executeInsert(InsertData data, Transaction tx) {
       Plan p = new TablePlan(data.tableName(), tx);
-      UpdateScan us = (UpdateScan) p.open();
-      us.insert();
-      Iterator<Constant> iter = data.vals().iterator();
-      for (String fldname : data.fields()) {
-         Constant val = iter.next();
-         us.setVal(fldname, val);
-      }
-      us.close();
+      TableScan ts = (TableScan) p.open();
+      ts.insertRow(data.fields(), data.vals());
+      ts.close();
       return 1;
    }
    
    public int executeCreateTable(CreateTableData data, Transaction tx) {
-      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
+      SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), data.format(), tx);
       return 0;
    }
    
@@ -65,4 +59,12 @@ public class BasicUpdatePlanner implements UpdatePlanner {
       SimpleDB.mdMgr().createIndex(data.indexName(), data.tableName(), data.fieldName(), tx);
       return 0;  
    }
+   
+   public int executeVacuum(VacuumData data, Transaction tx) {
+      return new TableCompactor(data.tableName()).compact();
+   }
+   
+   public int executeCluster(ClusterData data, Transaction tx) {
+      return new TableClusterer(data.tableName(), data.fieldName()).cluster(tx);
+   }
 }
@@ -54,6 +54,10 @@ public class Planner {
          return uplanner.executeCreateView((CreateViewData)obj, tx);
       else if (obj instanceof CreateIndexData)
          return uplanner.executeCreateIndex((CreateIndexData)obj, tx);
+      else if (obj instanceof VacuumData)
+         return uplanner.executeVacuum((VacuumData)obj, tx);
+      else if (obj instanceof ClusterData)
+         return uplanner.executeCluster((ClusterData)obj, tx);
       else
          return 0;
    }
@@ -0,0 +1,98 @@
+package simpledb.planner;
+
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import simpledb.metadata.IndexInfo;
+import simpledb.index.Index;
+import simpledb.materialize.SortPlan;
+import simpledb.query.*;
+
+/**
+ * Reorders the records of a table by the values of a field,
+ * so that records having the same or nearby values lie
+ * in the same or neighbouring blocks.
+ * The records are sorted into temporary tables, deleted,
+ * and inserted again in order from the start of the file,
+ * and the table's indexes are updated with their new RIDs.
+ * <p>
+ * The ordering is not maintained: later insertions go
+ * wherever there is room, as before, and the table can
+ * be reordered again.
+ * The reordering is done by the calling transaction,
+ * which exclusively locks the table, and so is undone
+ * if the transaction rolls back.
+ * Blocks emptied at the end of the file are left in place,
+ * for a later vacuum to truncate.
+ */
+public class TableClusterer {
+   private String tblname, fldname;
+   
+   /**
+    * Creates a clusterer for the specified table and field.
+    * @param tblname the name of the table
+    * @param fldname the name of the field to order the table by
+    */
+   public TableClusterer(String tblname, String fldname) {
+      this.tblname = tblname;
+      this.fldname = fldname;
+   }
+   
+   /**
+    * Reorders the table, and returns the number of records.
+    * @param tx the calling transaction, which must be a locking one
+    * @return the number of records reordered
+    */
+   public int cluster(Transaction tx) {
+      if (!tx.isLocking())
+         throw new RuntimeException("cannot cluster " + tblname
+                                    + " in a snapshot or optimistic transaction");
+      TableInfo ti = SimpleDB.mdMgr().getTableInfo(tblname, tx);
+      Schema sch = ti.schema();
+      if (!sch.hasField(fldname))
+         throw new RuntimeException("field " + fldname + " not found in " + tblname);
+      tx.xLockFile(ti.fileName());
+      Map<String,IndexInfo> indexes = SimpleDB.mdMgr().getIndexInfo(tblname, tx);
+      
+      // the sort reads the whole table before the records are deleted
+      Plan p = new SortPlan(new TablePlan(tblname, tx), Arrays.asList(fldname), tx);
+      Scan sorted = p.open();
+      
+      // first, delete every record and its index records
+      TableScan ts = (TableScan) new TablePlan(tblname, tx).open();
+      while (ts.next()) {
+         RID rid = ts.getRid();
+         for (String idxfld : indexes.keySet()) {
+            Index idx = indexes.get(idxfld).open();
+            idx.delete(ts.getVal(idxfld), rid);
+            idx.close();
+         }
+         ts.delete();
+      }
+      
+      // then insert the records in order, from the first block
+      List<String> fields = new ArrayList<String>(sch.fields());
+      int count = 0;
+      ts.beforeFirst();
+      while (sorted.next()) {
+         List<Constant> vals = new ArrayList<Constant>();
+         for (String f : fields)
+            vals.add(sorted.getVal(f));
+         ts.insertRow(fields, vals);
+         RID rid = ts.getRid();
+         for (String idxfld : indexes.keySet()) {
+            Index idx = indexes.get(idxfld).open();
+            idx.insert(sorted.getVal(idxfld), rid);
+            idx.close();
+         }
+         count++;
+      }
+      sorted.close();
+      ts.close();
+      
+      // the old zones span the old order
+      ti.zoneMap().reset();
+      return count;
+   }
+}
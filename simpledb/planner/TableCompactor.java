@@ -0,0 +1,184 @@
+package simpledb.planner;
+
+import static java.sql.Types.INTEGER;
+import java.util.Map;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.tx.TransactionInfo;
+import simpledb.file.Block;
+import simpledb.record.*;
+import simpledb.metadata.IndexInfo;
+import simpledb.index.Index;
+import simpledb.query.*;
+
+/**
+ * Compacts a table while it remains in use.
+ * The compactor moves the records of the table's last block
+ * into the free slots of its earlier blocks, updating the
+ * table's indexes, and works backwards one block at a time.
+ * The emptied blocks at the end of the file are then truncated.
+ * <p>
+ * Each block is moved by a transaction of its own,
+ * which locks just the records that it moves and the slots
+ * that it fills, and which gives up rather than wait for
+ * another transaction that has read a record to be moved.
+ * Each truncation is also a transaction of its own,
+ * which is made only when it can lock the whole file
+ * without waiting, and which logs the truncation, so that
+ * recovery does not redo the earlier modifications
+ * to the removed blocks onto blocks that reuse their numbers.
+ * An interrupted compaction thus loses only its current block.
+ * Compaction stops at the first block whose records
+ * do not all fit into the earlier blocks, or whose
+ * records are locked by a conflicting transaction,
+ * or that holds records moved there from other blocks
+ * of a slotted table, which are reached only through
+ * the slots that forward to them.
+ */
+public class TableCompactor {
+   /**
+    * The number of blocks that are emptied
+    * between truncations of the file.
+    */
+   static final int TRUNCATE_INTERVAL = 16;
+   
+   private String tblname;
+   private int dest = 0;
+   private int moved = 0;
+   
+   /**
+    * Creates a compactor for the specified table.
+    * @param tblname the name of the table
+    */
+   public TableCompactor(String tblname) {
+      this.tblname = tblname;
+   }
+   
+   /**
+    * Compacts the table, and returns the number of records moved.
+    * @return the number of records moved
+    */
+   public int compact() {
+      Transaction tx = new Transaction();
+      String filename = SimpleDB.mdMgr().getTableInfo(tblname, tx).fileName();
+      int blknum = tx.size(filename) - 1;
+      tx.commit();
+      int emptied = 0;
+      while (dest < blknum && moveBlock(blknum)) {
+         blknum--;
+         emptied++;
+         if (emptied % TRUNCATE_INTERVAL == 0)
+            truncateEmptyBlocks(filename);
+      }
+      truncateEmptyBlocks(filename);
+      return moved;
+   }
+   
+   /**
+    * Moves the records of the specified block into earlier blocks.
+    * The transaction is rolled back, and the method returns false,
+    * if a record does not fit, or is locked by another transaction,
+    * or if the block still holds records moved from other blocks.
+    */
+   private boolean moveBlock(int blknum) {
+      Transaction tx = new Transaction();
+      try {
+         TableInfo ti = SimpleDB.mdMgr().getTableInfo(tblname, tx);
+         Map<String,IndexInfo> indexes = SimpleDB.mdMgr().getIndexInfo(tblname, tx);
+         Schema sch = ti.schema();
+         Block blk = new Block(ti.fileName(), blknum);
+         RecordPage src = RecordPage.open(blk, ti, tx);
+         RecordPage dst = RecordPage.open(new Block(ti.fileName(), dest), ti, tx);
+         int count = 0;
+         while (src.next()) {
+            // a record in use by another transaction ends the compaction
+            if (!tx.tryXLockRecord(blk, src.currentId())) {
+               tx.rollback();
+               return false;
+            }
+            Object[] vals = new Object[sch.fields().size()];
+            for (int i = 0; i < vals.length; i++) {
+               if (sch.type(sch.fieldName(i)) == INTEGER)
+                  vals[i] = src.getInt(i);
+               else
+                  vals[i] = src.getString(i);
+            }
+            while (!dst.insertRow(vals)) {
+               dst.close();
+               dest++;
+               if (dest >= blknum) {
+                  tx.rollback();
+                  return false;
+               }
+               dst = RecordPage.open(new Block(ti.fileName(), dest), ti, tx);
+            }
+            RID oldrid = new RID(blknum, src.currentId());
+            RID newrid = new RID(dest, dst.currentId());
+            for (String fldname : indexes.keySet()) {
+               Object val = vals[sch.ordinal(fldname)];
+               Constant key = (val instanceof Integer)
+                     ? new IntConstant((Integer) val)
+                     : new StringConstant((String) val);
+               Index idx = indexes.get(fldname).open();
+               idx.delete(key, oldrid);
+               idx.insert(key, newrid);
+               idx.close();
+            }
+            src.delete();
+            count++;
+         }
+         if (!src.isEmpty()) {
+            tx.rollback();
+            return false;
+         }
+         src.close();
+         dst.close();
+         tx.commit();
+         moved += count;
+         return true;
+      }
+      catch (RuntimeException e) {
+         tx.rollback();
+         return false;
+      }
+   }
+   
+   /**
+    * Truncates the empty blocks at the end of the file,
+    * keeping at least one block.
+    * Nothing is done while another transaction is using the file,
+    * so that truncation never waits for the table's readers,
+    * or while a snapshot transaction is active,
+    * since its snapshot may hold records of those blocks.
+    */
+   private void truncateEmptyBlocks(String filename) {
+      for (TransactionInfo info : SimpleDB.txMgr().activeTransactions())
+         if (info.isSnapshot())
+            return;
+      Transaction tx = new Transaction();
+      try {
+         TableInfo ti = SimpleDB.mdMgr().getTableInfo(tblname, tx);
+         if (!tx.tryXLockFile(filename)) {
+            tx.rollback();
+            return;
+         }
+         int size = tx.size(filename);
+         int nblocks = size;
+         while (nblocks > 1 && isEmpty(new Block(filename, nblocks - 1), ti, tx))
+            nblocks--;
+         if (nblocks < size)
+            tx.truncate(filename, nblocks);
+         tx.commit();
+      }
+      catch (RuntimeException e) {
+         tx.rollback();
+      }
+   }
+   
+   private boolean isEmpty(Block blk, TableInfo ti, Transaction tx) {
+      RecordPage rp = RecordPage.open(blk, ti, tx);
+      boolean empty = rp.isEmpty();
+      rp.close();
+      return empty;
+   }
+}
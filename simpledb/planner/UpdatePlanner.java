@@ -63,4 +63,24 @@ public interface UpdatePlanner {
     * @return the number of affected records
     */
    public int executeCreateIndex(CreateIndexData data, Transaction tx);
+   
+   /**
+    * Executes the specified vacuum statement, and
+    * returns the number of records moved.
+    * The table is compacted by transactions of its own,
+    * rather than by the calling transaction.
+    * @param data the parsed representation of the vacuum statement
+    * @param tx the calling transaction
+    * @return the number of records moved
+    */
+   public int executeVacuum(VacuumData data, Transaction tx);
+   
+   /**
+    * Executes the specified cluster statement, and
+    * returns the number of records reordered.
+    * @param data the parsed representation of the cluster statement
+    * @param tx the calling transaction
+    * @return the number of records reordered
+    */
+   public int executeCluster(ClusterData data, Transaction tx);
 }
@@ -0,0 +1,37 @@
+package simpledb.query;
+
+/**
+ * A field expression that has been resolved to the
+ * ordinal of the field in a particular table scan.
+ * Evaluating it against that scan reads the field by ordinal;
+ * against any other scan, it behaves as an ordinary
+ * field expression.
+ * @see Predicate#bind(TableScan)
+ */
+class BoundFieldExpression extends FieldNameExpression {
+   private TableScan ts;
+   private int ordinal;
+   
+   /**
+    * Creates a field expression bound to the specified table scan.
+    * @param fldname the name of the field
+    * @param ts the table scan
+    * @param ordinal the ordinal of the field in that scan
+    */
+   BoundFieldExpression(String fldname, TableScan ts, int ordinal) {
+      super(fldname);
+      this.ts = ts;
+      this.ordinal = ordinal;
+   }
+   
+   /**
+    * Evaluates the field by getting its value by ordinal,
+    * if the scan is the one the expression is bound to.
+    * @see simpledb.query.Expression#evaluate(simpledb.query.Scan)
+    */
+   public Constant evaluate(Scan s) {
+      if (s == ts)
+         return ts.getVal(ordinal);
+      return super.evaluate(s);
+   }
+}
@@ -0,0 +1,47 @@
+package simpledb.query;
+
+import simpledb.record.StringDictionary;
+
+/**
+ * A term that equates a dictionary-encoded field of a
+ * table scan with a string constant.
+ * Against that scan, the term compares the code held by
+ * the current record with the code of the constant,
+ * without decoding the field;
+ * against any other scan, it behaves as an ordinary term.
+ * A constant that is not in the dictionary matches no record,
+ * until some transaction adds it.
+ * @see Term#bind(TableScan)
+ */
+class CodeTerm extends Term {
+   private TableScan ts;
+   private int ordinal;
+   private StringDictionary dict;
+   private String val;
+   private int code;
+   
+   /**
+    * Creates a term comparing the codes of the specified field and constant.
+    * @param lhs the LHS expression
+    * @param rhs the RHS expression
+    * @param ts the table scan
+    * @param ordinal the ordinal of the encoded field in that scan
+    * @param c the string constant
+    */
+   CodeTerm(Expression lhs, Expression rhs, TableScan ts, int ordinal, Constant c) {
+      super(lhs, rhs);
+      this.ts = ts;
+      this.ordinal = ordinal;
+      dict = ts.dictionary(ordinal);
+      val = (String) c.asJavaVal();
+      code = dict.code(val);
+   }
+   
+   public boolean isSatisfied(Scan s) {
+      if (s != ts)
+         return super.isSatisfied(s);
+      if (code < 0)
+         code = dict.code(val);
+      return code >= 0 && ts.getInt(ordinal) == code;
+   }
+}
@@ -0,0 +1,77 @@
+package simpledb.query;
+
+import simpledb.tx.Transaction;
+import simpledb.record.TableInfo;
+import java.util.*;
+
+/**
+ * A table scan that reads only the fields needed by its query.
+ * It is opened on tables of the
+ * {@link simpledb.record.TableInfo#PAX PAX} format, whose blocks
+ * store each field in its own minipage, so that the scan reads
+ * values from the minipages of the needed fields and no others.
+ * The scan still reads and pins each block whole,
+ * so it does no less disk I/O and uses no fewer buffers
+ * than a table scan; what it saves is the work of
+ * reading the values of the other fields, and the
+ * cache misses of skipping over them.
+ * The other fields of the table are hidden from the scan's clients;
+ * they can still be modified, as by any table scan.
+ */
+public class ColumnarTableScan extends TableScan {
+   private Collection<String> fields;
+   
+   /**
+    * Creates a scan of the specified table that reads
+    * the specified fields.
+    * The fields of the query that belong to other tables are ignored.
+    * @param ti the table's metadata
+    * @param fields the fields read by the query
+    * @param tx the calling transaction
+    */
+   public ColumnarTableScan(TableInfo ti, Collection<String> fields, Transaction tx) {
+      super(ti, tx);
+      this.fields = new HashSet<String>();
+      for (String fldname : fields)
+         if (ti.schema().hasField(fldname))
+            this.fields.add(fldname);
+   }
+   
+   public Constant getVal(String fldname) {
+      checkField(fldname);
+      return super.getVal(fldname);
+   }
+   
+   public int getInt(String fldname) {
+      checkField(fldname);
+      return super.getInt(fldname);
+   }
+   
+   public String getString(String fldname) {
+      checkField(fldname);
+      return super.getString(fldname);
+   }
+   
+   /**
+    * Returns true if the specified field is one
+    * that the scan reads.
+    * @see simpledb.query.Scan#hasField(java.lang.String)
+    */
+   public boolean hasField(String fldname) {
+      return fields.contains(fldname);
+   }
+   
+   /**
+    * Returns the ordinal of the specified field,
+    * or -1 if the scan does not read the field.
+    * @see simpledb.query.TableScan#ordinal(java.lang.String)
+    */
+   public int ordinal(String fldname) {
+      return fields.contains(fldname) ? super.ordinal(fldname) : -1;
+   }
+   
+   private void checkField(String fldname) {
+      if (!fields.contains(fldname))
+         throw new RuntimeException("field " + fldname + " is not read by the scan");
+   }
+}
@@ -45,6 +45,54 @@ public class Predicate {
       return true;
    }
    
+   /**
+    * Returns the names of the fields mentioned
+    * in the predicate.
+    * @return the predicate's field names
+    */
+   public Collection<String> fields() {
+      Collection<String> result = new HashSet<String>();
+      for (Term t : terms)
+         result.addAll(t.fields());
+      return result;
+   }
+   
+   /**
+    * Returns a copy of the predicate in which each field
+    * of the specified table scan is accessed by its ordinal,
+    * so that evaluating the predicate against that scan
+    * does not look up field names.
+    * The predicate itself is unchanged.
+    * @param ts the table scan that the predicate will be evaluated against
+    * @return the bound predicate
+    */
+   public Predicate bind(TableScan ts) {
+      Predicate result = new Predicate();
+      for (Term t : terms)
+         result.terms.add(t.bind(ts));
+      return result;
+   }
+   
+   /**
+    * Restricts the specified table scan to the blocks
+    * that may satisfy the predicate, using the first term
+    * that equates a field of the scan with a constant.
+    * The predicate must still be evaluated for each record.
+    * @param ts the table scan that the predicate will be evaluated against
+    * @see TableScan#restrict(String, Constant)
+    */
+   public void restrict(TableScan ts) {
+      for (Term t : terms) {
+         for (String fldname : t.fields()) {
+            Constant c = t.equatesWithConstant(fldname);
+            if (c != null && ts.ordinal(fldname) >= 0) {
+               ts.restrict(fldname, c);
+               return;
+            }
+         }
+      }
+   }
+   
    /** 
     * Calculates the extent to which selecting on the predicate 
     * reduces the number of records output by a query.
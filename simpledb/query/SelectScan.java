@@ -16,12 +16,22 @@ public class SelectScan implements UpdateScan {
    /**
     * Creates a select scan having the specified underlying
     * scan and predicate.
+    * If the underlying scan is a table scan, the predicate's
+    * fields are resolved to their ordinals here, once,
+    * rather than by name for each record,
+    * and the scan is restricted to the blocks
+    * that may satisfy the predicate.
     * @param s the scan of the underlying query
     * @param pred the selection predicate
     */
    public SelectScan(Scan s, Predicate pred) {
       this.s = s;
-      this.pred = pred;
+      if (s instanceof TableScan) {
+         this.pred = pred.bind((TableScan) s);
+         pred.restrict((TableScan) s);
+      }
+      else
+         this.pred = pred;
    }
    
    // Scan methods
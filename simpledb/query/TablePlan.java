@@ -4,6 +4,7 @@ import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.metadata.*;
 import simpledb.record.*;
+import java.util.Collection;
 
 /** The Plan class corresponding to a table.
   * @author Edward Sciore
@@ -12,6 +13,7 @@ public class TablePlan implements Plan {
    private Transaction tx;
    private TableInfo ti;
    private StatInfo si;
+   private Collection<String> fields;
    
    /**
     * Creates a leaf node in the query tree corresponding
@@ -25,11 +27,26 @@ public class TablePlan implements Plan {
       si = SimpleDB.mdMgr().getStatInfo(tblname, ti, tx);
    }
    
+   /**
+    * Specifies the fields of the table that the query reads.
+    * A scan of a table of the PAX format then reads values
+    * only from those fields' minipages, although it
+    * still reads each block whole.
+    * @param fields the fields read by the query
+    */
+   public void setFields(Collection<String> fields) {
+      this.fields = fields;
+   }
+   
    /**
     * Creates a table scan for this query.
+    * If the table has the PAX format and the query's fields
+    * are known, the scan is a columnar scan of those fields.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
+      if (ti.format() == TableInfo.PAX && fields != null)
+         return new ColumnarTableScan(ti, fields, tx);
       return new TableScan(ti, tx);
    }
    
@@ -3,18 +3,23 @@ package simpledb.query;
 import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
+import java.util.*;
 
 /**
  * The Scan class corresponding to a table.
  * A table scan is just a wrapper for a RecordFile object;
  * most methods just delegate to the corresponding
  * RecordFile methods.
+ * A client that reads a field repeatedly can look up
+ * its ordinal once, and access it by ordinal thereafter.
  * @author Edward Sciore
  *
  */
 public class TableScan implements UpdateScan {
    private RecordFile rf;
+   private TableInfo ti;
    private Schema sch;
+   private int[] types;
    
    /**
     * Creates a new table scan,
@@ -24,7 +29,11 @@ public class TableScan implements UpdateScan {
     */
    public TableScan(TableInfo ti, Transaction tx) {
       rf  = new RecordFile(ti, tx);
+      this.ti = ti;
       sch = ti.schema();
+      types = new int[sch.fields().size()];
+      for (String fldname : sch.fields())
+         types[sch.ordinal(fldname)] = sch.type(fldname);
    }
    
    // Scan methods
@@ -49,10 +58,7 @@ public class TableScan implements UpdateScan {
     * @see simpledb.query.Scan#getVal(java.lang.String)
     */
    public Constant getVal(String fldname) {
-      if (sch.type(fldname) == INTEGER)
-         return new IntConstant(rf.getInt(fldname));
-      else
-         return new StringConstant(rf.getString(fldname));
+      return getVal(ordinal(fldname));
    }
    
    public int getInt(String fldname) {
@@ -67,6 +73,83 @@ public class TableScan implements UpdateScan {
       return sch.hasField(fldname);
    }
    
+   /**
+    * Returns the ordinal of the specified field,
+    * for use with the methods that access a field by ordinal.
+    * @param fldname the name of the field
+    * @return the ordinal of the field, or -1 if the table has no such field
+    */
+   public int ordinal(String fldname) {
+      return sch.ordinal(fldname);
+   }
+   
+   /**
+    * Returns the value of the field having the
+    * specified ordinal, as a Constant.
+    * @param ordinal the ordinal of the field
+    * @return the value of that field in the current record
+    */
+   public Constant getVal(int ordinal) {
+      if (types[ordinal] == INTEGER)
+         return new IntConstant(rf.getInt(ordinal));
+      else
+         return new StringConstant(rf.getString(ordinal));
+   }
+   
+   /**
+    * Returns the value of the integer field having
+    * the specified ordinal.
+    * @param ordinal the ordinal of the field
+    * @return the value of that field in the current record
+    */
+   public int getInt(int ordinal) {
+      return rf.getInt(ordinal);
+   }
+   
+   /**
+    * Returns the value of the string field having
+    * the specified ordinal.
+    * @param ordinal the ordinal of the field
+    * @return the value of that field in the current record
+    */
+   public String getString(int ordinal) {
+      return rf.getString(ordinal);
+   }
+   
+   /**
+    * Restricts the scan to the blocks that may hold records
+    * having the specified value in the specified field,
+    * according to the table's zone map, and positions
+    * the scan before the first record of those blocks.
+    * The caller must still test each record.
+    * The restriction is ignored if the table has no such field,
+    * or if the constant is not of the field's type.
+    * @param fldname the name of the field
+    * @param c the value of the field
+    */
+   public void restrict(String fldname, Constant c) {
+      int ordinal = ordinal(fldname);
+      if (ordinal < 0)
+         return;
+      Object val = c.asJavaVal();
+      if ((types[ordinal] == INTEGER) != (val instanceof Integer))
+         return;
+      rf.restrict(ordinal, val);
+   }
+   
+   /**
+    * Returns the dictionary of the field having the
+    * specified ordinal, or null if the field is not
+    * dictionary-encoded.
+    * The {@link #getInt(int)} method returns the code
+    * that the current record holds for such a field.
+    * @param ordinal the ordinal of the field
+    * @return the field's dictionary, or null
+    */
+   public StringDictionary dictionary(int ordinal) {
+      return ti.dictionary(ordinal);
+   }
+   
    // UpdateScan methods
    
    /**
@@ -99,6 +182,27 @@ public class TableScan implements UpdateScan {
       rf.insert();
    }
    
+   /**
+    * Inserts a new record having the specified values,
+    * and makes it the current record.
+    * The record is written as a single row, rather than
+    * a blank record followed by a write to each field.
+    * Fields without a value are given 0 or the empty string.
+    * @param fldnames the names of the fields being given values
+    * @param vals the values of those fields
+    */
+   public void insertRow(List<String> fldnames, List<Constant> vals) {
+      Object[] row = new Object[types.length];
+      for (int i = 0; i < row.length; i++)
+         row[i] = (types[i] == INTEGER) ? (Object) 0 : "";
+      for (int i = 0; i < fldnames.size(); i++) {
+         int k = ordinal(fldnames.get(i));
+         Object val = vals.get(i).asJavaVal();
+         row[k] = (types[k] == INTEGER) ? (Integer) val : (String) val;
+      }
+      rf.insertRow(row);
+   }
+   
    public RID getRid() {
       return rf.currentRid();
    }
@@ -1,6 +1,7 @@
 package simpledb.query;
 
 import simpledb.record.Schema;
+import java.util.*;
 
 /**
  * A term is a comparison between two expressions.
@@ -117,6 +118,54 @@ public class Term {
       return rhsval.equals(lhsval);
    }
    
+   /**
+    * Returns the names of the fields mentioned
+    * in the term's expressions.
+    * @return the term's field names
+    */
+   public Collection<String> fields() {
+      Collection<String> result = new ArrayList<String>();
+      if (lhs.isFieldName())
+         result.add(lhs.asFieldName());
+      if (rhs.isFieldName())
+         result.add(rhs.asFieldName());
+      return result;
+   }
+   
+   /**
+    * Returns a copy of the term in which each field
+    * of the specified table scan is accessed by its ordinal.
+    * A term that equates a dictionary-encoded field
+    * with a string constant compares their codes instead.
+    * @param ts the table scan
+    * @return the bound term
+    * @see Predicate#bind(TableScan)
+    */
+   public Term bind(TableScan ts) {
+      Expression l = bind(lhs, ts);
+      Expression r = bind(rhs, ts);
+      if (isEncodedField(l, ts) && r.isConstant() && r.asConstant() instanceof StringConstant)
+         return new CodeTerm(l, r, ts, ts.ordinal(l.asFieldName()), r.asConstant());
+      if (isEncodedField(r, ts) && l.isConstant() && l.asConstant() instanceof StringConstant)
+         return new CodeTerm(l, r, ts, ts.ordinal(r.asFieldName()), l.asConstant());
+      return new Term(l, r);
+   }
+   
+   private boolean isEncodedField(Expression e, TableScan ts) {
+      return e instanceof BoundFieldExpression
+            && ts.dictionary(ts.ordinal(e.asFieldName())) != null;
+   }
+   
+   private Expression bind(Expression e, TableScan ts) {
+      if (!e.isFieldName())
+         return e;
+      String fldname = e.asFieldName();
+      int ordinal = ts.ordinal(fldname);
+      if (ordinal < 0)
+         return e;
+      return new BoundFieldExpression(fldname, ts, ordinal);
+   }
+   
    public String toString() {
       return lhs.toString() + "=" + rhs.toString();
    }
@@ -0,0 +1,95 @@
+package simpledb.record;
+
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+import java.util.Iterator;
+
+/**
+ * Loads a stream of records into a table, much faster
+ * than inserting them one at a time.
+ * The loader exclusively locks the table, and places the
+ * records in new blocks appended to its file.
+ * Each new block is logged by a single log record, and the values
+ * written to it are neither locked nor logged individually;
+ * the blocks are instead written to disk when the transaction commits.
+ * If the transaction rolls back, the new blocks are left empty.
+ * <p>
+ * The loader does not maintain the table's indexes,
+ * and so is meant for tables that have none.
+ */
+public class BulkLoader {
+   private TableInfo ti;
+   private Transaction tx;
+   private RecordPage rp;
+   private int count = 0;
+   
+   /**
+    * Creates a loader for the specified table,
+    * and exclusively locks the table.
+    * @param ti the table's metadata
+    * @param tx the loading transaction, which must be a locking one
+    */
+   public BulkLoader(TableInfo ti, Transaction tx) {
+      this.ti = ti;
+      this.tx = tx;
+      tx.xLockFile(ti.fileName());
+   }
+   
+   /**
+    * Adds a record to the table.
+    * The values are given in the order of the
+    * table's fields, as Integers and Strings.
+    * @param vals the values of the record's fields
+    */
+   public void insert(Object[] vals) {
+      if (vals.length != ti.schema().fields().size())
+         throw new RuntimeException("expected " + ti.schema().fields().size()
+                                    + " values, got " + vals.length);
+      if (rp == null || !rp.insertRow(vals)) {
+         newBlock();
+         if (!rp.insertRow(vals))
+            throw new RuntimeException("record does not fit in a block of " + ti.fileName());
+      }
+      count++;
+   }
+   
+   /**
+    * Adds each record of the specified stream to the table.
+    * @param records the records, each given as for {@link #insert(Object[])}
+    * @return the number of records added
+    */
+   public int load(Iterator<Object[]> records) {
+      int n = 0;
+      while (records.hasNext()) {
+         insert(records.next());
+         n++;
+      }
+      return n;
+   }
+   
+   /**
+    * Returns the number of records added so far.
+    * @return the number of records added
+    */
+   public int count() {
+      return count;
+   }
+   
+   /**
+    * Closes the loader, by unpinning its current block.
+    * The loaded records become durable when
+    * the transaction commits.
+    */
+   public void close() {
+      if (rp != null) {
+         rp.close();
+         rp = null;
+      }
+   }
+   
+   private void newBlock() {
+      close();
+      Block blk = tx.appendForLoad(ti.fileName(), new RecordFormatter(ti));
+      rp = RecordPage.open(blk, ti, tx);
+   }
+}
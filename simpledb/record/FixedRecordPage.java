@@ -0,0 +1,169 @@
+package simpledb.record;
+
+import static simpledb.file.Page.*;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+
+/**
+ * Manages the placement and access of records in a block
+ * of the fixed-slot format.
+ * The block is divided into slots of the same size, each
+ * holding a flag followed by the record, in which every field
+ * has a fixed offset and string fields have their maximum length.
+ * Records are locked individually, so that transactions
+ * may access different records of the block concurrently.
+ * Scanning the block locks each slot that it examines,
+ * including the empty ones, so that no other transaction
+ * can insert a record into a slot that the scan has passed.
+ * @author Edward Sciore
+ */
+class FixedRecordPage extends RecordPage {
+   private int slotsize;
+   
+   /** Creates the record manager for the specified block.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     */
+   FixedRecordPage(Block blk, TableInfo ti, Transaction tx) {
+      super(blk, ti, tx);
+      slotsize = ti.recordLength() + INT_SIZE;
+  }
+   
+   /**
+    * Moves to the next record in the block.
+    * @return false if there is no next record.
+    */
+   public boolean next() {
+      return searchFor(INUSE);
+   }
+   
+   public int getInt(int ordinal) {
+      return tx.getInt(blk, currentslot, fieldpos(ordinal));
+   }
+   
+   protected String readString(int ordinal) {
+      return tx.getString(blk, currentslot, fieldpos(ordinal));
+   }
+   
+   protected void writeInt(int ordinal, int val) {
+      tx.setInt(blk, currentslot, fieldpos(ordinal), val);
+   }
+   
+   protected void writeString(int ordinal, String val) {
+      tx.setString(blk, currentslot, fieldpos(ordinal), val);
+   }
+   
+   /**
+    * Deletes the current record.
+    * Deletion is performed by just marking the record
+    * as "deleted"; the current record does not change. 
+    * To get to the next record, call next().
+    */
+   protected void erase() {
+      int position = currentpos();
+      tx.setInt(blk, currentslot, position, EMPTY);
+   }
+   
+   /**
+    * Inserts a new, blank record somewhere in the page.
+    * Return false if there were no available slots.
+    * @return false if the insertion was not possible
+    */
+   protected boolean insertBlank() {
+      if (!claimSlot())
+         return false;
+      tx.setInt(blk, currentslot, currentpos(), INUSE);
+      return true;
+   }
+   
+   /**
+    * Inserts a new record having the specified values.
+    * The flag and the fields of the record are written
+    * together, as a single row.
+    * @see simpledb.record.RecordPage#insertRow(java.lang.Object[])
+    */
+   public boolean insertRow(Object[] vals) {
+      if (!claimSlot())
+         return false;
+      writeRow(encode(vals), true);
+      rowWritten(vals);
+      return true;
+   }
+   
+   /**
+    * Stores the specified values in the fields of
+    * the current record, as a single row.
+    * @see simpledb.record.RecordPage#updateRow(java.lang.Object[])
+    */
+   public void updateRow(Object[] vals) {
+      writeRow(encode(vals), false);
+      rowWritten(vals);
+   }
+   
+   /**
+    * Moves to a slot that is empty and exclusively locked.
+    * The method looks for a slot that appears to be empty,
+    * without locking, and then locks the slot and checks it again,
+    * since another transaction may have claimed it in the meantime.
+    * Returns false if there is no such slot.
+    */
+   private boolean claimSlot() {
+      currentslot = 0;
+      while (isValidSlot()) {
+         int position = currentpos();
+         if (tx.peekInt(blk, position) == EMPTY) {
+            tx.xLockRecord(blk, currentslot);
+            if (tx.getInt(blk, currentslot, position) == EMPTY)
+               return true;
+         }
+         currentslot++;
+      }
+      return false;
+   }
+   
+   /**
+    * Writes the values of the current record,
+    * preceded by its INUSE flag if specified.
+    */
+   private void writeRow(Object[] vals, boolean withFlag) {
+      int n = withFlag ? vals.length + 1 : vals.length;
+      int[] offsets = new int[n];
+      Object[] rowvals = new Object[n];
+      int i = 0;
+      if (withFlag) {
+         offsets[i] = currentpos();
+         rowvals[i++] = INUSE;
+      }
+      for (int f = 0; f < vals.length; f++) {
+         offsets[i] = fieldpos(f);
+         rowvals[i++] = vals[f];
+      }
+      tx.setRow(blk, currentslot, offsets, rowvals);
+   }
+   
+   private int currentpos() {
+      return currentslot * slotsize;
+   }
+   
+   private int fieldpos(int ordinal) {
+      int offset = INT_SIZE + ti.offset(ordinal);
+      return currentpos() + offset;
+   }
+   
+   private boolean isValidSlot() {
+      return currentpos() + slotsize <= BLOCK_SIZE;
+   }
+   
+   private boolean searchFor(int flag) {
+      currentslot++;
+      while (isValidSlot()) {
+         int position = currentpos();
+         if (tx.getInt(blk, currentslot, position) == flag)
+            return true;
+         currentslot++;
+      }
+      return false;
+   }
+}
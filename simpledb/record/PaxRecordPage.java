@@ -0,0 +1,191 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import static simpledb.file.Page.*;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+
+/**
+ * Manages the placement and access of records in a block
+ * of the PAX (partition attributes across) format.
+ * The block holds as many records as a block of the fixed-slot
+ * format, but groups their values column by column:
+ * it begins with a minipage holding the flag of each slot,
+ * followed by a minipage for each field, holding the value
+ * of that field for each slot.
+ * A scan that reads only some fields of a table thus
+ * touches only the minipages of those fields in memory,
+ * although the whole block is read from disk.
+ * Records are locked individually, as in the fixed-slot format.
+ */
+class PaxRecordPage extends RecordPage {
+   private int capacity;
+   private int[] minipages, widths;
+   
+   /** Creates the record manager for the specified block.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     */
+   PaxRecordPage(Block blk, TableInfo ti, Transaction tx) {
+      super(blk, ti, tx);
+      capacity = capacity(ti);
+      Schema sch = ti.schema();
+      int nfields = sch.fields().size();
+      minipages = new int[nfields];
+      widths = new int[nfields];
+      for (int i = 0; i < nfields; i++) {
+         minipages[i] = minipage(ti, i);
+         widths[i] = width(sch, sch.fieldName(i));
+      }
+   }
+   
+   /**
+    * Returns the number of record slots in a block
+    * of the specified table.
+    * @param ti the table's metadata
+    * @return the number of slots in each block
+    */
+   static int capacity(TableInfo ti) {
+      return BLOCK_SIZE / (ti.recordLength() + INT_SIZE);
+   }
+   
+   /**
+    * Returns the position of the minipage of the field
+    * having the specified ordinal.
+    * The minipages follow the flag minipage, in the order
+    * of the fields' offsets within a fixed-slot record.
+    * @param ti the table's metadata
+    * @param ordinal the ordinal of the field
+    * @return the position of the field's minipage in a block
+    */
+   static int minipage(TableInfo ti, int ordinal) {
+      return capacity(ti) * (INT_SIZE + ti.offset(ordinal));
+   }
+   
+   /**
+    * Returns the number of bytes that a value of
+    * the specified field occupies in its minipage.
+    * @param sch the table's schema
+    * @param fldname the name of the field
+    * @return the width of the field's values
+    */
+   static int width(Schema sch, String fldname) {
+      if (sch.type(fldname) == INTEGER || sch.isEncoded(fldname))
+         return INT_SIZE;
+      else
+         return STR_SIZE(sch.length(fldname));
+   }
+   
+   public boolean next() {
+      while (++currentslot < capacity)
+         if (tx.getInt(blk, currentslot, flagpos()) == INUSE)
+            return true;
+      return false;
+   }
+   
+   public int getInt(int ordinal) {
+      return tx.getInt(blk, currentslot, fieldpos(ordinal));
+   }
+   
+   protected String readString(int ordinal) {
+      return tx.getString(blk, currentslot, fieldpos(ordinal));
+   }
+   
+   protected void writeInt(int ordinal, int val) {
+      tx.setInt(blk, currentslot, fieldpos(ordinal), val);
+   }
+   
+   protected void writeString(int ordinal, String val) {
+      tx.setString(blk, currentslot, fieldpos(ordinal), val);
+   }
+   
+   protected void erase() {
+      tx.setInt(blk, currentslot, flagpos(), EMPTY);
+   }
+   
+   /**
+    * Inserts a new, blank record somewhere in the page.
+    * Return false if there were no available slots.
+    * As in the fixed-slot format, the method looks for a slot
+    * that appears to be empty, and then locks the slot
+    * and checks it again.
+    * @return false if the insertion was not possible
+    */
+   protected boolean insertBlank() {
+      if (!claimSlot())
+         return false;
+      tx.setInt(blk, currentslot, flagpos(), INUSE);
+      return true;
+   }
+   
+   /**
+    * Inserts a new record having the specified values.
+    * The flag and the values of the record are written
+    * together, as a single row, although they lie in
+    * different minipages.
+    * @see simpledb.record.RecordPage#insertRow(java.lang.Object[])
+    */
+   public boolean insertRow(Object[] vals) {
+      if (!claimSlot())
+         return false;
+      writeRow(encode(vals), true);
+      rowWritten(vals);
+      return true;
+   }
+   
+   /**
+    * Stores the specified values in the fields of
+    * the current record, as a single row.
+    * @see simpledb.record.RecordPage#updateRow(java.lang.Object[])
+    */
+   public void updateRow(Object[] vals) {
+      writeRow(encode(vals), false);
+      rowWritten(vals);
+   }
+   
+   /**
+    * Moves to a slot that is empty and exclusively locked,
+    * or returns false if there is none.
+    */
+   private boolean claimSlot() {
+      for (currentslot = 0; currentslot < capacity; currentslot++) {
+         int position = flagpos();
+         if (tx.peekInt(blk, position) == EMPTY) {
+            tx.xLockRecord(blk, currentslot);
+            if (tx.getInt(blk, currentslot, position) == EMPTY)
+               return true;
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Writes the values of the current record,
+    * preceded by its INUSE flag if specified.
+    */
+   private void writeRow(Object[] vals, boolean withFlag) {
+      int n = withFlag ? vals.length + 1 : vals.length;
+      int[] offsets = new int[n];
+      Object[] rowvals = new Object[n];
+      int i = 0;
+      if (withFlag) {
+         offsets[i] = flagpos();
+         rowvals[i++] = INUSE;
+      }
+      for (int f = 0; f < vals.length; f++) {
+         offsets[i] = fieldpos(f);
+         rowvals[i++] = vals[f];
+      }
+      tx.setRow(blk, currentslot, offsets, rowvals);
+   }
+   
+   private int flagpos() {
+      return currentslot * INT_SIZE;
+   }
+   
+   private int fieldpos(int ordinal) {
+      return minipages[ordinal] + currentslot * widths[ordinal];
+   }
+}
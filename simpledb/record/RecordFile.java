@@ -1,5 +1,6 @@
 package simpledb.record;
 
+import static java.sql.Types.INTEGER;
 import simpledb.file.Block;
 import simpledb.tx.Transaction;
 
@@ -7,6 +8,8 @@ import simpledb.tx.Transaction;
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * A field may be identified by its name or, more cheaply,
+ * by its {@link Schema#ordinal(String) ordinal}.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,6 +18,10 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private int restricted = -1;
+   private Object restriction;
+   private Object[] cachedRow;
+   private RID cachedRid;
    
    /**
     * Constructs an object to manage a file of records.
@@ -43,7 +50,8 @@ public class RecordFile {
     * will wind up at the first record. 
     */
    public void beforeFirst() {
-      moveTo(0);
+      cachedRow = null;
+      moveTo(nextBlock(0));
    }
    
    /**
@@ -52,15 +60,41 @@ public class RecordFile {
     * @return false if there is no next record.
     */
    public boolean next() {
+      uncache();
       while (true) {
          if (rp.next())
             return true;
          if (atLastBlock())
             return false;
-         moveTo(currentblknum + 1);
+         moveTo(nextBlock(currentblknum + 1));
       }
    }
    
+   /**
+    * Restricts the iteration to the blocks that may hold
+    * records having the specified value in the field
+    * having the specified ordinal, as given by the
+    * table's {@link ZoneMap}, and positions the current record
+    * so that a call to method next will wind up at
+    * the first record of those blocks.
+    * Records of the other blocks may still be returned,
+    * so the caller must still test each record.
+    * The restriction is ignored for temporary tables,
+    * and for optimistic transactions, since an optimistic
+    * read of a block is not covered by its zone.
+    * A snapshot transaction skips only the blocks whose
+    * zones were built before its snapshot.
+    * @param ordinal the ordinal of the field
+    * @param val the value, as an Integer or a String
+    */
+   public void restrict(int ordinal, Object val) {
+      if (ti.fileName().startsWith("temp") || !(tx.isLocking() || tx.snapshotCSN() >= 0))
+         return;
+      restricted = ordinal;
+      restriction = val;
+      beforeFirst();
+   }
+   
    /**
     * Returns the value of the specified field
     * in the current record.
@@ -68,7 +102,7 @@ public class RecordFile {
     * @return the integer value at that field
     */
    public int getInt(String fldname) {
-      return rp.getInt(fldname);
+      return getInt(ti.schema().ordinal(fldname));
    }
    
    /**
@@ -78,7 +112,31 @@ public class RecordFile {
     * @return the string value at that field
     */
    public String getString(String fldname) {
-      return rp.getString(fldname);
+      return getString(ti.schema().ordinal(fldname));
+   }
+   
+   /**
+    * Returns the value of the field having the
+    * specified ordinal in the current record.
+    * @param ordinal the ordinal of the field
+    * @return the integer value at that field
+    */
+   public int getInt(int ordinal) {
+      if (cachedRow != null)
+         return (Integer) cachedRow[ordinal];
+      return rp.getInt(ordinal);
+   }
+   
+   /**
+    * Returns the value of the field having the
+    * specified ordinal in the current record.
+    * @param ordinal the ordinal of the field
+    * @return the string value at that field
+    */
+   public String getString(int ordinal) {
+      if (cachedRow != null)
+         return (String) cachedRow[ordinal];
+      return rp.getString(ordinal);
    }
    
    /**
@@ -88,7 +146,7 @@ public class RecordFile {
     * @param val the new value for the field
     */
    public void setInt(String fldname, int val) {
-      rp.setInt(fldname, val);
+      setInt(ti.schema().ordinal(fldname), val);
    }
    
    /**
@@ -98,7 +156,29 @@ public class RecordFile {
     * @param val the new value for the field
     */
    public void setString(String fldname, String val) {
-      rp.setString(fldname, val);
+      setString(ti.schema().ordinal(fldname), val);
+   }
+   
+   /**
+    * Sets the value of the field having the
+    * specified ordinal in the current record.
+    * @param ordinal the ordinal of the field
+    * @param val the new value for the field
+    */
+   public void setInt(int ordinal, int val) {
+      uncache();
+      rp.setInt(ordinal, val);
+   }
+   
+   /**
+    * Sets the value of the field having the
+    * specified ordinal in the current record.
+    * @param ordinal the ordinal of the field
+    * @param val the new value for the field
+    */
+   public void setString(int ordinal, String val) {
+      uncache();
+      rp.setString(ordinal, val);
    }
    
    /**
@@ -109,6 +189,7 @@ public class RecordFile {
     * have unspecified behavior.
     */
    public void delete() {
+      uncache();
       rp.delete();
    }
    
@@ -119,6 +200,7 @@ public class RecordFile {
     * then a new block is appended to the file.
     */
    public void insert() {
+      cachedRow = null;
       while (!rp.insert()) {
          if (atLastBlock())
             appendBlock();
@@ -126,14 +208,70 @@ public class RecordFile {
       }
    }
    
+   /**
+    * Inserts a new record having the specified values
+    * somewhere in the file, beginning at the current record,
+    * as for {@link #insert()}.
+    * Where the format allows, the record is written
+    * as a single row, under a single lock and log record.
+    * @param vals the values of the record's fields,
+    * in the order of the table's fields
+    */
+   public void insertRow(Object[] vals) {
+      cachedRow = null;
+      while (!rp.insertRow(vals)) {
+         if (atLastBlock())
+            appendBlock();
+         moveTo(currentblknum + 1);
+      }
+   }
+   
+   /**
+    * Sets the values of the fields of the current record,
+    * as a single row where the format allows.
+    * @param vals the new values of the record's fields,
+    * in the order of the table's fields
+    */
+   public void updateRow(Object[] vals) {
+      uncache();
+      rp.updateRow(vals);
+   }
+   
    /**
     * Positions the current record as indicated by the
     * specified RID. 
+    * If the {@link RowCache} is enabled, a locking transaction
+    * locks the record and reads its cached row, if any,
+    * without pinning its block; otherwise the record's values
+    * are read and cached, unless the transaction
+    * may have modified them.
+    * A snapshot transaction reads a row cached before its
+    * snapshot, if any, and otherwise reads the record
+    * without caching it.
     * @param rid a record identifier
     */
    public void moveToRid(RID rid) {
+      cachedRow = null;
+      int snapcsn = tx.snapshotCSN();
+      if (!RowCache.isEnabled() || filename.startsWith("temp") || !(tx.isLocking() || snapcsn >= 0)) {
+         moveTo(rid.blockNumber());
+         rp.moveToId(rid.id());
+         return;
+      }
+      Block blk = new Block(filename, rid.blockNumber());
+      if (snapcsn < 0) {
+         tx.sLockRecord(blk, rid.id());
+         snapcsn = Integer.MAX_VALUE;
+      }
+      cachedRow = RowCache.get(blk, rid.id(), snapcsn);
+      if (cachedRow != null) {
+         cachedRid = rid;
+         return;
+      }
       moveTo(rid.blockNumber());
       rp.moveToId(rid.id());
+      if (tx.isLocking() && !tx.mayHaveModified(blk, rid.id()))
+         RowCache.put(blk, rid.id(), currentRow(), Transaction.currentCSN());
    }
    
    /**
@@ -141,16 +279,77 @@ public class RecordFile {
     * @return a record identifier
     */
    public RID currentRid() {
+      if (cachedRow != null)
+         return cachedRid;
       int id = rp.currentId();
       return new RID(currentblknum, id);
    }
    
+   /**
+    * Returns the values of the current record's fields.
+    */
+   private Object[] currentRow() {
+      Schema sch = ti.schema();
+      Object[] vals = new Object[sch.fields().size()];
+      for (int i = 0; i < vals.length; i++) {
+         if (sch.type(sch.fieldName(i)) == INTEGER)
+            vals[i] = rp.getInt(i);
+         else
+            vals[i] = rp.getString(i);
+      }
+      return vals;
+   }
+   
+   /**
+    * Positions the record page at the current record,
+    * if the record was read from the row cache,
+    * so that it can be modified or passed.
+    */
+   private void uncache() {
+      if (cachedRow == null)
+         return;
+      cachedRow = null;
+      moveTo(cachedRid.blockNumber());
+      rp.moveToId(cachedRid.id());
+   }
+   
    private void moveTo(int b) {
       if (rp != null)
          rp.close();
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = RecordPage.open(blk, ti, tx);
+   }
+   
+   /**
+    * Returns the number of the first block, from the
+    * specified one, that the restriction does not exclude.
+    * The last block of the file is never skipped,
+    * so that the file remains positioned within it.
+    */
+   private int nextBlock(int b) {
+      if (restricted >= 0) {
+         int last = tx.size(filename) - 1;
+         while (b < last && excludes(b))
+            b++;
+      }
+      return b;
+   }
+   
+   /**
+    * Returns true if the zone of the specified block
+    * excludes the restricted value.
+    * The block is shared before the zone is checked again,
+    * so that no record having the value can be
+    * inserted into the skipped block before the
+    * transaction ends.
+    */
+   private boolean excludes(int b) {
+      ZoneMap zones = ti.zoneMap();
+      if (zones.mayContain(b, restricted, restriction, tx))
+         return false;
+      tx.sLock(new Block(filename, b));
+      return !zones.mayContain(b, restricted, restriction, tx);
    }
    
    private boolean atLastBlock() {
@@ -28,9 +28,22 @@ class RecordFormatter implements PageFormatter {
     * Each record slot is assigned a flag of EMPTY.
     * Each integer field is given a value of 0, and
     * each string field is given a value of "".
+    * A page of the slotted format is given an empty slot directory
+    * instead, with the whole page as free space,
+    * and a page of the PAX format is given the same values
+    * in its minipages.
     * @see simpledb.buffer.PageFormatter#format(simpledb.file.Page)
     */
    public void format(Page page) {
+      if (ti.format() == TableInfo.SLOTTED) {
+         page.setInt(SlottedRecordPage.SLOT_COUNT, 0);
+         page.setInt(SlottedRecordPage.FREE_END, BLOCK_SIZE);
+         return;
+      }
+      if (ti.format() == TableInfo.PAX) {
+         formatPax(page);
+         return;
+      }
       int recsize = ti.recordLength() + INT_SIZE;
       for (int pos=0; pos+recsize<=BLOCK_SIZE; pos += recsize) {
          page.setInt(pos, EMPTY);
@@ -38,6 +51,23 @@ class RecordFormatter implements PageFormatter {
       }
    }
    
+   private void formatPax(Page page) {
+      int capacity = PaxRecordPage.capacity(ti);
+      for (int slot=0; slot<capacity; slot++)
+         page.setInt(slot * INT_SIZE, EMPTY);
+      Schema sch = ti.schema();
+      for (String fldname : sch.fields()) {
+         int minipage = PaxRecordPage.minipage(ti, sch.ordinal(fldname));
+         int width = PaxRecordPage.width(sch, fldname);
+         for (int slot=0; slot<capacity; slot++) {
+            if (sch.type(fldname) == INTEGER)
+               page.setInt(minipage + slot * width, 0);
+            else
+               page.setString(minipage + slot * width, "");
+         }
+      }
+   }
+   
    private void makeDefaultRecord(Page page, int pos) {
       for (String fldname : ti.schema().fields()) {
          int offset = ti.offset(fldname);
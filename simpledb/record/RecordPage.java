@@ -1,43 +1,73 @@
 package simpledb.record;
 
-import static simpledb.file.Page.*;
+import static java.sql.Types.INTEGER;
 import simpledb.file.Block;
 import simpledb.tx.Transaction;
 
 /**
  * Manages the placement and access of records in a block.
+ * The layout of the block depends on the
+ * {@link TableInfo#format() storage format} of its table;
+ * each format has its own subclass.
+ * A field may be identified by its name or by its
+ * {@link Schema#ordinal(String) ordinal};
+ * the latter avoids looking up the name on each access.
+ * The values of a dictionary-encoded string field are
+ * stored as integer codes, which this class translates;
+ * the subclasses read and write the other strings.
+ * Each value written is also noted in the table's {@link ZoneMap},
+ * and drops the record's row from the {@link RowCache}.
  * @author Edward Sciore
  */
-public class RecordPage {
+public abstract class RecordPage {
    public static final int EMPTY = 0, INUSE = 1;
    
-   private Block blk;
-   private TableInfo ti;
-   private Transaction tx;
-   private int slotsize;
-   private int currentslot = -1;
-   
-   /** Creates the record manager for the specified block.
-     * The current record is set to be prior to the first one.
-     * @param blk a reference to the disk block
-     * @param ti the table's metadata
-     * @param tx the transaction performing the operations
-     */
-   public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+   protected Block blk;
+   protected TableInfo ti;
+   protected Transaction tx;
+   protected int currentslot = -1;
+   private ZoneMap zones;
+   
+   /**
+    * Creates the record manager for the specified block,
+    * according to the storage format of its table.
+    * The current record is set to be prior to the first one.
+    * @param blk a reference to the disk block
+    * @param ti the table's metadata
+    * @param tx the transaction performing the operations
+    * @return the record manager for the block
+    */
+   public static RecordPage open(Block blk, TableInfo ti, Transaction tx) {
+      if (ti.format() == TableInfo.SLOTTED)
+         return new SlottedRecordPage(blk, ti, tx);
+      else if (ti.format() == TableInfo.PAX)
+         return new PaxRecordPage(blk, ti, tx);
+      else
+         return new FixedRecordPage(blk, ti, tx);
+   }
+   
+   /**
+    * Creates the record manager for the specified block,
+    * and pins the block.
+    * @param blk a reference to the disk block
+    * @param ti the table's metadata
+    * @param tx the transaction performing the operations
+    */
+   protected RecordPage(Block blk, TableInfo ti, Transaction tx) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
-      slotsize = ti.recordLength() + INT_SIZE;
+      zones = ti.zoneMap();
       tx.pin(blk);
-  }
+   }
    
    /**
     * Closes the manager, by unpinning the block.
     */
    public void close() {
       if (blk != null) {
-    	  tx.unpin(blk);
-    	  blk = null;
+         tx.unpin(blk);
+         blk = null;
       }
    }
    
@@ -45,9 +75,7 @@ public class RecordPage {
     * Moves to the next record in the block.
     * @return false if there is no next record.
     */
-   public boolean next() {
-      return searchFor(INUSE);
-   }
+   public abstract boolean next();
    
    /**
     * Returns the integer value stored for the
@@ -56,10 +84,17 @@ public class RecordPage {
     * @return the integer stored in that field
     */
    public int getInt(String fldname) {
-      int position = fieldpos(fldname);
-      return tx.getInt(blk, position);
+      return getInt(ordinal(fldname));
    }
    
+   /**
+    * Returns the integer value stored for the field
+    * having the specified ordinal in the current record.
+    * @param ordinal the ordinal of the field.
+    * @return the integer stored in that field
+    */
+   public abstract int getInt(int ordinal);
+   
    /**
     * Returns the string value stored for the
     * specified field of the current record.
@@ -67,10 +102,34 @@ public class RecordPage {
     * @return the string stored in that field
     */
    public String getString(String fldname) {
-      int position = fieldpos(fldname);
-      return tx.getString(blk, position);
+      return getString(ordinal(fldname));
+   }
+   
+   /**
+    * Returns the string value stored for the field
+    * having the specified ordinal in the current record.
+    * The value of a dictionary-encoded field is decoded
+    * from the integer code that the record holds,
+    * which {@link #getInt(int)} returns.
+    * @param ordinal the ordinal of the field.
+    * @return the string stored in that field
+    */
+   public String getString(int ordinal) {
+      StringDictionary dict = ti.dictionary(ordinal);
+      if (dict != null)
+         return dict.decode(getInt(ordinal));
+      return readString(ordinal);
    }
    
+   /**
+    * Returns the string that the current record holds
+    * for the field having the specified ordinal,
+    * which is not dictionary-encoded.
+    * @param ordinal the ordinal of the field.
+    * @return the string stored in that field
+    */
+   protected abstract String readString(int ordinal);
+   
    /**
     * Stores an integer at the specified field
     * of the current record.
@@ -78,10 +137,31 @@ public class RecordPage {
     * @param val the integer value stored in that field
     */
    public void setInt(String fldname, int val) {
-      int position = fieldpos(fldname);
-      tx.setInt(blk, position, val);
+      setInt(ordinal(fldname), val);
    }
    
+   /**
+    * Stores an integer at the field having the
+    * specified ordinal in the current record.
+    * The value is then noted in the block's zone,
+    * and the record's cached row is dropped.
+    * @param ordinal the ordinal of the field
+    * @param val the integer value stored in that field
+    */
+   public void setInt(int ordinal, int val) {
+      writeInt(ordinal, val);
+      fieldWritten(ordinal, val);
+   }
+   
+   /**
+    * Stores an integer in the current record
+    * at the field having the specified ordinal,
+    * or the code of a dictionary-encoded field.
+    * @param ordinal the ordinal of the field
+    * @param val the integer value stored in that field
+    */
+   protected abstract void writeInt(int ordinal, int val);
+   
    /**
     * Stores a string at the specified field
     * of the current record.
@@ -89,8 +169,59 @@ public class RecordPage {
     * @param val the string value stored in that field
     */
    public void setString(String fldname, String val) {
-      int position = fieldpos(fldname);
-      tx.setString(blk, position, val);
+      setString(ordinal(fldname), val);
+   }
+   
+   /**
+    * Stores a string at the field having the
+    * specified ordinal in the current record.
+    * The value is then noted in the block's zone,
+    * and the record's cached row is dropped.
+    * A dictionary-encoded field is set to the code of the string.
+    * @param ordinal the ordinal of the field
+    * @param val the string value stored in that field
+    */
+   public void setString(int ordinal, String val) {
+      StringDictionary dict = ti.dictionary(ordinal);
+      if (dict != null)
+         writeInt(ordinal, dict.encode(val));
+      else
+         writeString(ordinal, val);
+      fieldWritten(ordinal, val);
+   }
+   
+   /**
+    * Stores a string in the current record at the field
+    * having the specified ordinal, which is not dictionary-encoded.
+    * @param ordinal the ordinal of the field
+    * @param val the string value stored in that field
+    */
+   protected abstract void writeString(int ordinal, String val);
+   
+   /**
+    * Returns true if the specified string can be stored
+    * at the specified field of the current record
+    * without moving the record to another block.
+    * A format whose records have room for every field
+    * of its declared length always returns true.
+    * @param fldname the name of the field
+    * @param val the string value to be stored
+    * @return true if the value fits in the page
+    */
+   public boolean canSetString(String fldname, String val) {
+      return canSetString(ordinal(fldname), val);
+   }
+   
+   /**
+    * Returns true if the specified string can be stored
+    * at the field having the specified ordinal in the current record.
+    * @param ordinal the ordinal of the field
+    * @param val the string value to be stored
+    * @return true if the value fits in the page
+    * @see #canSetString(String, String)
+    */
+   public boolean canSetString(int ordinal, String val) {
+      return true;
    }
    
    /**
@@ -98,25 +229,153 @@ public class RecordPage {
     * Deletion is performed by just marking the record
     * as "deleted"; the current record does not change. 
     * To get to the next record, call next().
+    * The record's cached row is dropped.
     */
    public void delete() {
-      int position = currentpos();
-      tx.setInt(blk, position, EMPTY);
+      erase();
+      RowCache.invalidate(blk, currentslot);
+   }
+   
+   /**
+    * Marks the current record as deleted.
+    */
+   protected abstract void erase();
+   
+   /**
+    * Returns true if the page holds no records,
+    * so that its block can be removed from the file.
+    * The current record is set to be prior to the first one.
+    * @return true if the page holds no records
+    */
+   public boolean isEmpty() {
+      moveToId(-1);
+      return !next();
    }
    
    /**
     * Inserts a new, blank record somewhere in the page.
     * Return false if there were no available slots.
+    * The fields of the new record are noted in the block's zone,
+    * and any cached row for its slot is dropped.
     * @return false if the insertion was not possible
     */
    public boolean insert() {
-      currentslot = -1;
-      boolean found = searchFor(EMPTY);
-      if (found) {
-         int position = currentpos();
-         tx.setInt(blk, position, INUSE);
+      if (!insertBlank())
+         return false;
+      RowCache.invalidate(blk, currentslot);
+      widenZone();
+      return true;
+   }
+   
+   /**
+    * Inserts a new, blank record somewhere in the page,
+    * and makes it the current record.
+    * Return false if there were no available slots.
+    * @return false if the insertion was not possible
+    */
+   protected abstract boolean insertBlank();
+   
+   /**
+    * Inserts a new record having the specified values
+    * somewhere in the page.
+    * Return false if there is no room for the record.
+    * The values are given in the order of the table's fields,
+    * as Integers and Strings.
+    * This implementation inserts a blank record and then
+    * sets its fields; a format whose records can be written
+    * in place writes the record and its flag at once.
+    * @param vals the values of the record's fields
+    * @return false if the insertion was not possible
+    */
+   public boolean insertRow(Object[] vals) {
+      if (!insert())
+         return false;
+      for (int i = 0; i < vals.length; i++) {
+         if (vals[i] instanceof String && !canSetString(i, (String) vals[i])) {
+            delete();
+            return false;
+         }
+      }
+      updateRow(vals);
+      return true;
+   }
+   
+   /**
+    * Stores the specified values in the fields of the current record.
+    * The values are given in the order of the table's fields,
+    * as Integers and Strings.
+    * This implementation sets each field in turn.
+    * @param vals the new values of the record's fields
+    */
+   public void updateRow(Object[] vals) {
+      for (int i = 0; i < vals.length; i++) {
+         if (vals[i] instanceof Integer)
+            setInt(i, (Integer) vals[i]);
+         else
+            setString(i, (String) vals[i]);
       }
-      return found;
+   }
+   
+   /**
+    * Returns the specified values of a record's fields,
+    * with the value of each dictionary-encoded field
+    * replaced by its code, for a format that writes
+    * the values of a row directly.
+    * @param vals the values of the record's fields
+    * @return the values to be stored
+    */
+   protected Object[] encode(Object[] vals) {
+      Object[] result = vals;
+      for (int i = 0; i < vals.length; i++) {
+         StringDictionary dict = ti.dictionary(i);
+         if (dict != null) {
+            if (result == vals)
+               result = vals.clone();
+            result[i] = dict.encode((String) vals[i]);
+         }
+      }
+      return result;
+   }
+   
+   /**
+    * Notes that the specified values were written to the
+    * current record, by a format that writes the values
+    * of a row directly.
+    * The values are noted in the block's zone,
+    * and the record's cached row is dropped.
+    * This is done after the values are written, and so after
+    * the record is locked, since the zone of the block
+    * may be built, or the row cached, in between.
+    * @param vals the values of the record's fields
+    */
+   protected void rowWritten(Object[] vals) {
+      zones.widen(blk.number(), vals);
+      RowCache.invalidate(blk, currentslot);
+   }
+   
+   private void fieldWritten(int ordinal, Object val) {
+      zones.widen(blk.number(), ordinal, val);
+      RowCache.invalidate(blk, currentslot);
+   }
+   
+   /**
+    * Notes the current values of the current record
+    * in the block's zone, if the block has one.
+    * This is needed after inserting a blank record,
+    * whose fields hold whatever their slot held.
+    */
+   private void widenZone() {
+      if (!zones.hasZone(blk.number()))
+         return;
+      Schema sch = ti.schema();
+      Object[] vals = new Object[sch.fields().size()];
+      for (int i = 0; i < vals.length; i++) {
+         if (sch.type(sch.fieldName(i)) == INTEGER)
+            vals[i] = getInt(i);
+         else
+            vals[i] = getString(i);
+      }
+      zones.widen(blk.number(), vals);
    }
    
    /**
@@ -136,27 +395,7 @@ public class RecordPage {
       return currentslot;
    }
    
-   private int currentpos() {
-      return currentslot * slotsize;
-   }
-   
-   private int fieldpos(String fldname) {
-      int offset = INT_SIZE + ti.offset(fldname);
-      return currentpos() + offset;
-   }
-   
-   private boolean isValidSlot() {
-      return currentpos() + slotsize <= BLOCK_SIZE;
-   }
-   
-   private boolean searchFor(int flag) {
-      currentslot++;
-      while (isValidSlot()) {
-         int position = currentpos();
-         if (tx.getInt(blk, position) == flag)
-            return true;
-         currentslot++;
-      }
-      return false;
+   private int ordinal(String fldname) {
+      return ti.schema().ordinal(fldname);
    }
 }
@@ -0,0 +1,164 @@
+package simpledb.record;
+
+import java.util.*;
+import simpledb.file.Block;
+
+/**
+ * The cache of decoded rows, used for repeated lookups of
+ * records by their RIDs, such as those of index scans.
+ * A cached row holds the values of a record's fields,
+ * so that reading it neither pins the record's block
+ * nor decodes its fields from the page.
+ * <p>
+ * A row is cached by a locking transaction that reads the record
+ * by its RID and has not modified it, so that the row is committed.
+ * A reader still locks the record before using its cached row.
+ * Every change to a record drops its row, after the change is
+ * made and so while the writer holds its lock; a row thus
+ * cannot be cached again until the writer commits or rolls back.
+ * The deferred writes of an optimistic transaction
+ * drop the rows again when they are performed at commit.
+ * <p>
+ * Each row is stamped with the commit sequence number current
+ * when it was cached, after it was read.
+ * A snapshot transaction uses only the rows cached no later
+ * than its snapshot: since any change to a record drops its row,
+ * such a row is the version of the record that the snapshot sees.
+ * A snapshot transaction does not cache rows, since the
+ * values it reads may be older than the committed ones.
+ * <p>
+ * The cache holds rows up to a budget of bytes,
+ * evicting the least recently used rows.
+ * It is disabled by default.
+ */
+public class RowCache {
+   private static volatile long capacity = 0;
+   private static long used = 0;
+   private static LinkedHashMap<Key,Entry> rows =
+         new LinkedHashMap<Key,Entry>(16, 0.75f, true);
+   
+   /**
+    * Sets the number of bytes that cached rows may take,
+    * and empties the cache.
+    * A capacity of zero disables the cache.
+    * @param bytes the capacity of the cache, in bytes
+    */
+   public static synchronized void setCapacity(long bytes) {
+      capacity = bytes;
+      rows.clear();
+      used = 0;
+   }
+   
+   /**
+    * Returns true if the cache is enabled.
+    * @return true if rows may be cached
+    */
+   static boolean isEnabled() {
+      return capacity > 0;
+   }
+   
+   /**
+    * Returns the cached row of the specified record,
+    * or null if the record's row is not cached,
+    * or was cached after the specified commit sequence number.
+    * @param blk the block containing the record
+    * @param id the ID of the record within the block
+    * @param csn the commit sequence number of the reader's snapshot,
+    * or Integer.MAX_VALUE for a reader that locks the record
+    * @return the values of the record's fields, or null
+    */
+   static synchronized Object[] get(Block blk, int id, int csn) {
+      Entry e = rows.get(new Key(blk, id));
+      return (e == null || e.csn > csn) ? null : e.row;
+   }
+   
+   /**
+    * Caches the row of the specified record.
+    * @param blk the block containing the record
+    * @param id the ID of the record within the block
+    * @param row the values of the record's fields
+    * @param csn the commit sequence number current after the row was read
+    */
+   static synchronized void put(Block blk, int id, Object[] row, int csn) {
+      if (capacity == 0)
+         return;
+      Entry old = rows.put(new Key(blk, id), new Entry(row, csn));
+      if (old != null)
+         used -= size(old.row);
+      used += size(row);
+      evict();
+   }
+   
+   /**
+    * Drops the cached row of the specified record, if any.
+    * @param blk the block containing the record
+    * @param id the ID of the record within the block
+    */
+   public static void invalidate(Block blk, int id) {
+      if (capacity == 0)
+         return;
+      synchronized (RowCache.class) {
+         Entry old = rows.remove(new Key(blk, id));
+         if (old != null)
+            used -= size(old.row);
+      }
+   }
+   
+   private static void evict() {
+      Iterator<Entry> iter = rows.values().iterator();
+      while (used > capacity && iter.hasNext()) {
+         used -= size(iter.next().row);
+         iter.remove();
+      }
+   }
+   
+   /**
+    * Estimates the number of bytes taken by a cached row,
+    * including its entry.
+    */
+   private static long size(Object[] row) {
+      long size = 96 + 8 * row.length;
+      for (Object val : row)
+         size += (val instanceof String) ? 40 + 2 * ((String) val).length() : 16;
+      return size;
+   }
+   
+   /**
+    * A cached row, and the commit sequence number
+    * current when it was cached.
+    */
+   private static class Entry {
+      private Object[] row;
+      private int csn;
+   
+      Entry(Object[] row, int csn) {
+         this.row = row;
+         this.csn = csn;
+      }
+   }
+   
+   /**
+    * The identity of a record, as its file, block number, and ID.
+    */
+   private static class Key {
+      private String filename;
+      private int blknum, id;
+   
+      Key(Block blk, int id) {
+         filename = blk.fileName();
+         blknum = blk.number();
+         this.id = id;
+      }
+   
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Key))
+            return false;
+         Key k = (Key) obj;
+         return id == k.id && blknum == k.blknum && filename.equals(k.filename);
+      }
+   
+      public int hashCode() {
+         return (31 * filename.hashCode() + blknum) * 31 + id;
+      }
+   }
+}
@@ -8,11 +8,16 @@ import java.util.*;
  * A schema contains the name and type of
  * each field of the table, as well as the length
  * of each varchar field.
+ * The fields are kept in the order in which they were added,
+ * and each field is identified by its position in that order,
+ * called its ordinal, so that the record layer can
+ * access a field without looking up its name.
  * @author Edward Sciore
  *
  */
 public class Schema {
-   private Map<String,FieldInfo> info = new HashMap<String,FieldInfo>();
+   private Map<String,FieldInfo> info = new LinkedHashMap<String,FieldInfo>();
+   private List<String> names = new ArrayList<String>();
    
    /**
     * Creates an empty schema.
@@ -31,7 +36,12 @@ public class Schema {
     * @param length the conceptual length of a string field.
     */
    public void addField(String fldname, int type, int length) {
-      info.put(fldname, new FieldInfo(type, length));
+      int ordinal = ordinal(fldname);
+      if (ordinal < 0) {
+         ordinal = names.size();
+         names.add(fldname);
+      }
+      info.put(fldname, new FieldInfo(type, length, ordinal));
    }
    
    /**
@@ -54,17 +64,33 @@ public class Schema {
       addField(fldname, VARCHAR, length);
    }
    
+   /**
+    * Adds a dictionary-encoded string field to the schema.
+    * Each record holds an integer code for the field's value,
+    * which the table's {@link StringDictionary dictionary}
+    * translates to and from the string.
+    * @param fldname the name of the field
+    * @param length the number of chars in the varchar definition
+    */
+   public void addEncodedStringField(String fldname, int length) {
+      addField(fldname, VARCHAR, length);
+      info.get(fldname).encoded = true;
+   }
+   
    /**
     * Adds a field to the schema having the same
     * type and length as the corresponding field
-    * in another schema.
+    * in another schema, and encoded if that field is.
     * @param fldname the name of the field
     * @param sch the other schema
     */
    public void add(String fldname, Schema sch) {
       int type   = sch.type(fldname);
       int length = sch.length(fldname);
-      addField(fldname, type, length);
+      if (sch.isEncoded(fldname))
+         addEncodedStringField(fldname, length);
+      else
+         addField(fldname, type, length);
    }
    
    /**
@@ -73,18 +99,39 @@ public class Schema {
     * @param sch the other schema
     */
    public void addAll(Schema sch) {
-      info.putAll(sch.info);
+      for (String fldname : sch.fields())
+         add(fldname, sch);
    }
    
    /**
     * Returns a collection containing the name of
-    * each field in the schema.
+    * each field in the schema, in ordinal order.
     * @return the collection of the schema's field names
     */
    public Collection<String> fields() {
       return info.keySet();
    }
    
+   /**
+    * Returns the ordinal of the specified field,
+    * which is its position among the schema's fields.
+    * @param fldname the name of the field
+    * @return the ordinal of the field, or -1 if it is not in the schema
+    */
+   public int ordinal(String fldname) {
+      FieldInfo fi = info.get(fldname);
+      return (fi == null) ? -1 : fi.ordinal;
+   }
+   
+   /**
+    * Returns the name of the field having the specified ordinal.
+    * @param ordinal the ordinal of the field
+    * @return the name of the field
+    */
+   public String fieldName(int ordinal) {
+      return names.get(ordinal);
+   }
+   
    /**
     * Returns true if the specified field
     * is in the schema
@@ -105,6 +152,16 @@ public class Schema {
       return info.get(fldname).type;
    }
    
+   /**
+    * Returns true if the specified field is a
+    * dictionary-encoded string field.
+    * @param fldname the name of the field
+    * @return true if the field's values are stored as codes
+    */
+   public boolean isEncoded(String fldname) {
+      return info.get(fldname).encoded;
+   }
+   
    /**
     * Returns the conceptual length of the specified field.
     * If the field is not a string field, then
@@ -117,10 +174,12 @@ public class Schema {
    }
    
    class FieldInfo {
-      int type, length;
-      public FieldInfo(int type, int length) {
+      int type, length, ordinal;
+      boolean encoded;
+      public FieldInfo(int type, int length, int ordinal) {
          this.type = type;
          this.length = length;
+         this.ordinal = ordinal;
       }
    }
 }
@@ -0,0 +1,435 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import static simpledb.file.Page.*;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+
+/**
+ * Manages the placement and access of records in a block
+ * of the slotted format.
+ * The block begins with a header holding the number of slots
+ * and the end of the block's free space, followed by the
+ * slot directory, whose entries hold the flag of a slot
+ * and the position of its record.
+ * Records and strings are allocated from the end of the block
+ * towards the directory.
+ * A record holds the value of each integer field and the
+ * position of each string field, and a string takes just
+ * the space of its characters.
+ * A string that is modified to a longer value is given new space,
+ * and the space of the replaced string is not reclaimed.
+ * The slot of a deleted record is reused, along with its space.
+ * A slot is added only if {@link #UPDATE_RESERVE} bytes remain free
+ * afterwards, so that the block's strings have room to grow.
+ * <p>
+ * A record whose block has no room for a longer string
+ * is moved to another block, so that its RID does not change.
+ * Its slot is flagged {@link #FORWARD}, and the first integer
+ * of its record space holds the location of the moved record,
+ * whose slot is flagged {@link #MOVED}.
+ * A moved record is reached only through its forwarding slot,
+ * which this class follows transparently;
+ * a scan of the block holding it passes over it.
+ * A free-space end of zero denotes the end of the block,
+ * so that a zeroed block, such as one whose bulk load was
+ * rolled back, is an empty block.
+ * <p>
+ * Records are locked individually, as in the fixed-slot format.
+ * The header is locked as a record having ID -1:
+ * a transaction that allocates space exclusively locks it,
+ * and a scan shares it, so that no slot can be added behind the scan.
+ * @author Edward Sciore
+ */
+class SlottedRecordPage extends RecordPage {
+   static final int SLOT_COUNT = 0, FREE_END = INT_SIZE, DIRECTORY = 2 * INT_SIZE;
+   
+   /**
+    * The flags of a slot whose record was moved to another block,
+    * and of a slot holding a record moved from another block.
+    */
+   static final int FORWARD = 2, MOVED = 3;
+   
+   private static final int HEADER = -1;
+   private static final int ENTRY_SIZE = 2 * INT_SIZE;
+   private static final int MAX_SLOTS = BLOCK_SIZE / ENTRY_SIZE;
+   
+   /**
+    * The number of bytes of a block that are kept free
+    * when slots are added, for the strings of the block's records
+    * to be modified to longer values without moving the records.
+    */
+   static final int UPDATE_RESERVE = BLOCK_SIZE / 10;
+   
+   private int recpos = -1;
+   private SlottedRecordPage data; // the page holding the current record
+   
+   /** Creates the record manager for the specified block.
+     * The current record is set to be prior to the first one.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     */
+   SlottedRecordPage(Block blk, TableInfo ti, Transaction tx) {
+      super(blk, ti, tx);
+   }
+   
+   /**
+    * Closes the manager, along with the manager of the
+    * block holding the current record, if it was moved.
+    * @see simpledb.record.RecordPage#close()
+    */
+   public void close() {
+      closeMoved();
+      super.close();
+   }
+   
+   /**
+    * Moves to the next record in the block,
+    * passing over the records moved from other blocks.
+    * @see simpledb.record.RecordPage#next()
+    */
+   public boolean next() {
+      moveToId(currentslot + 1);
+      while (currentslot < slotCount()) {
+         int flag = tx.getInt(blk, currentslot, entrypos());
+         if (flag == INUSE || flag == FORWARD)
+            return true;
+         moveToId(currentslot + 1);
+      }
+      return false;
+   }
+   
+   public int getInt(int ordinal) {
+      if (data() != this)
+         return data.getInt(ordinal);
+      return tx.getInt(blk, currentslot, fieldpos(ordinal));
+   }
+   
+   /**
+    * Returns the string value stored for the
+    * specified field of the current record.
+    * A string field that has never been set is empty.
+    * @param ordinal the ordinal of the field.
+    * @return the string stored in that field
+    */
+   protected String readString(int ordinal) {
+      if (data() != this)
+         return data.readString(ordinal);
+      int strpos = tx.getInt(blk, currentslot, fieldpos(ordinal));
+      if (strpos == 0)
+         return "";
+      return tx.getString(blk, currentslot, strpos);
+   }
+   
+   protected void writeInt(int ordinal, int val) {
+      if (data() != this)
+         data.writeInt(ordinal, val);
+      else
+         tx.setInt(blk, currentslot, fieldpos(ordinal), val);
+   }
+   
+   /**
+    * Stores a string at the specified field
+    * of the current record.
+    * The string overwrites the current one if it is no longer;
+    * otherwise it is stored in newly-allocated space.
+    * If the block holding the record has no room for it,
+    * the record is moved to another block.
+    * @param ordinal the ordinal of the field
+    * @param val the string value stored in that field
+    */
+   protected void writeString(int ordinal, String val) {
+      if (!data().place(ordinal, val))
+         relocate(ordinal, val);
+   }
+   
+   /**
+    * Returns true if the string fits in place of the current one,
+    * or in the free space of the block holding the record,
+    * so that storing it does not move the record.
+    * An encoded string always fits, since the record holds its code.
+    * In the latter case the header is locked, so that the
+    * space remains available to this transaction.
+    * @see simpledb.record.RecordPage#canSetString(int, java.lang.String)
+    */
+   public boolean canSetString(int ordinal, String val) {
+      if (ti.dictionary(ordinal) != null)
+         return true;
+      if (data() != this)
+         return data.canSetString(ordinal, val);
+      int strpos = tx.getInt(blk, currentslot, fieldpos(ordinal));
+      if ((strpos == 0 && val.length() == 0) || fitsAt(strpos, val))
+         return true;
+      tx.xLockRecord(blk, HEADER);
+      return freeSpace() >= STR_SIZE(val.length());
+   }
+   
+   /**
+    * Marks the current record as deleted.
+    * The moved record of a forwarding slot is deleted as well,
+    * and the forwarding location is cleared, so that a string
+    * field of a record that reuses the slot reads as empty.
+    */
+   protected void erase() {
+      if (data() != this) {
+         data.erase();
+         tx.setInt(blk, currentslot, recordpos(), 0);
+      }
+      tx.setInt(blk, currentslot, entrypos(), EMPTY);
+   }
+   
+   /**
+    * Returns true if no slot of the block holds a record,
+    * including a record moved from another block.
+    * @see simpledb.record.RecordPage#isEmpty()
+    */
+   public boolean isEmpty() {
+      int count = slotCount();
+      for (int id = 0; id < count; id++)
+         if (tx.getInt(blk, id, DIRECTORY + id * ENTRY_SIZE) != EMPTY)
+            return false;
+      return true;
+   }
+   
+   /**
+    * Inserts a new, blank record somewhere in the page.
+    * Return false if there is no room for the record.
+    * The method first looks for an empty slot, as in the
+    * fixed-slot format, and reuses its record space.
+    * Otherwise it locks the header, and adds a slot to
+    * the directory if the block has room for the record
+    * beyond its update reserve.
+    * A slot or header locked by another transaction is
+    * passed over rather than waited for, so that concurrent
+    * transactions insert into different slots and blocks.
+    * The strings of the new record are empty, and take
+    * no space until they are set.
+    * @return false if the insertion was not possible
+    */
+   protected boolean insertBlank() {
+      int count = tx.peekInt(blk, SLOT_COUNT);
+      for (moveToId(0); currentslot < count; moveToId(currentslot + 1)) {
+         int position = entrypos();
+         if (tx.peekInt(blk, position) == EMPTY && tx.tryXLockRecord(blk, currentslot)) {
+            // a slot is locked by its creator until the creation commits,
+            // so a locked slot within the directory is not being rolled back
+            if (currentslot < tx.peekInt(blk, SLOT_COUNT)
+                  && tx.getInt(blk, currentslot, position) == EMPTY) {
+               tx.setInt(blk, currentslot, position, INUSE);
+               return true;
+            }
+         }
+      }
+      int newsize = ENTRY_SIZE + ti.recordLength() + UPDATE_RESERVE;
+      int dirend = DIRECTORY + ENTRY_SIZE * count;
+      if (freeEnd(tx.peekInt(blk, FREE_END)) - dirend < newsize)
+         return false;
+      if (!tx.tryXLockRecord(blk, HEADER) || freeSpace() < newsize)
+         return false;
+      moveToId(slotCount());
+      tx.xLockRecord(blk, currentslot);
+      tx.setInt(blk, HEADER, SLOT_COUNT, currentslot + 1);
+      int pos = allocate(ti.recordLength());
+      tx.setInt(blk, currentslot, entrypos() + INT_SIZE, pos);
+      tx.setInt(blk, currentslot, entrypos(), INUSE);
+      for (int i = 0; i < ti.schema().fields().size(); i++)
+         tx.setInt(blk, currentslot, pos + ti.offset(i), 0);
+      recpos = pos;
+      data = this;
+      return true;
+   }
+   
+   public void moveToId(int id) {
+      closeMoved();
+      currentslot = id;
+      recpos = -1;
+      data = null;
+   }
+   
+   /**
+    * Returns the manager of the block holding the current record,
+    * which is this one unless the record was moved.
+    */
+   private SlottedRecordPage data() {
+      if (data == null) {
+         data = this;
+         if (tx.getInt(blk, currentslot, entrypos()) == FORWARD) {
+            int location = tx.getInt(blk, currentslot, recordpos());
+            Block movedblk = new Block(blk.fileName(), location / MAX_SLOTS);
+            data = new SlottedRecordPage(movedblk, ti, tx);
+            data.moveToId(location % MAX_SLOTS);
+         }
+      }
+      return data;
+   }
+   
+   private void closeMoved() {
+      if (data != null && data != this)
+         data.close();
+   }
+   
+   /**
+    * Stores a string at the specified field of the current record,
+    * in place of the current one or in the block's free space,
+    * as for {@link #writeString(int, String)}.
+    * Returns false if the block has no room for the string.
+    */
+   private boolean place(int ordinal, String val) {
+      int pos = fieldpos(ordinal);
+      int strpos = tx.getInt(blk, currentslot, pos);
+      if (strpos == 0 && val.length() == 0)
+         return true;
+      if (!fitsAt(strpos, val)) {
+         int size = STR_SIZE(val.length());
+         tx.xLockRecord(blk, HEADER);
+         if (freeSpace() < size)
+            return false;
+         strpos = allocate(size);
+         // the new space holds no string, so make it read as empty
+         tx.setInt(blk, currentslot, strpos, 0);
+         tx.setInt(blk, currentslot, pos, strpos);
+      }
+      tx.setString(blk, currentslot, strpos, val);
+      return true;
+   }
+   
+   /**
+    * Moves the current record to another block,
+    * with the specified string at the field having
+    * the specified ordinal, because the block holding
+    * the record has no room for the string.
+    * The record is inserted into the last block of the file,
+    * or into a new block if that one has no room either,
+    * and its slot here is made to forward to it.
+    * A record that had already been moved is deleted
+    * from the block that it was moved to.
+    */
+   private void relocate(int ordinal, String val) {
+      Object[] vals = data.storedValues();
+      vals[ordinal] = val;
+      SlottedRecordPage target = insertMoved(vals);
+      if (target.blk.number() >= Integer.MAX_VALUE / MAX_SLOTS)
+         throw new RuntimeException("cannot forward a record to " + target.blk);
+      if (data != this) {
+         data.erase();
+         data.close();
+      }
+      int location = target.blk.number() * MAX_SLOTS + target.currentslot;
+      tx.setInt(blk, currentslot, recordpos(), location);
+      tx.setInt(blk, currentslot, entrypos(), FORWARD);
+      data = target;
+   }
+   
+   /**
+    * Inserts a record having the specified stored values,
+    * flagged as moved, into the last block of the file or,
+    * if it has no room, into a new block,
+    * and returns the manager of the block that holds it.
+    * The current block and the block from which the record
+    * is being moved are passed over.
+    */
+   private SlottedRecordPage insertMoved(Object[] vals) {
+      String filename = blk.fileName();
+      int last = tx.size(filename) - 1;
+      if (last != blk.number() && last != data.blk.number()) {
+         SlottedRecordPage target = new SlottedRecordPage(new Block(filename, last), ti, tx);
+         if (target.insertStored(vals))
+            return target;
+         target.close();
+      }
+      Block newblk = tx.append(filename, new RecordFormatter(ti));
+      SlottedRecordPage target = new SlottedRecordPage(newblk, ti, tx);
+      if (!target.insertStored(vals)) {
+         target.close();
+         throw new RuntimeException("record does not fit in a block of " + filename);
+      }
+      return target;
+   }
+   
+   /**
+    * Inserts a record having the specified stored values,
+    * flagged as moved, and makes it the current record.
+    * Returns false if there is no room for the record.
+    */
+   private boolean insertStored(Object[] vals) {
+      if (!insertBlank())
+         return false;
+      for (int i = 0; i < vals.length; i++) {
+         if (vals[i] instanceof Integer)
+            writeInt(i, (Integer) vals[i]);
+         else if (!place(i, (String) vals[i])) {
+            erase();
+            return false;
+         }
+      }
+      tx.setInt(blk, currentslot, entrypos(), MOVED);
+      return true;
+   }
+   
+   /**
+    * Returns the values stored in the current record,
+    * with the codes of its dictionary-encoded fields.
+    */
+   private Object[] storedValues() {
+      Schema sch = ti.schema();
+      Object[] vals = new Object[sch.fields().size()];
+      for (int i = 0; i < vals.length; i++) {
+         if (sch.type(sch.fieldName(i)) == INTEGER || ti.dictionary(i) != null)
+            vals[i] = getInt(i);
+         else
+            vals[i] = readString(i);
+      }
+      return vals;
+   }
+   
+   private int slotCount() {
+      return tx.getInt(blk, HEADER, SLOT_COUNT);
+   }
+   
+   /**
+    * Returns the size of the free space between the directory
+    * and the allocated records.
+    * The caller must have locked the header.
+    */
+   private int freeSpace() {
+      int dirend = DIRECTORY + ENTRY_SIZE * slotCount();
+      return freeEnd(tx.getInt(blk, HEADER, FREE_END)) - dirend;
+   }
+   
+   /**
+    * Allocates the specified number of bytes from the free space,
+    * and returns their position.
+    * The caller must have locked the header.
+    */
+   private int allocate(int size) {
+      if (freeSpace() < size)
+         throw new RuntimeException("no room in " + blk + " for " + size + " bytes");
+      int pos = freeEnd(tx.getInt(blk, HEADER, FREE_END)) - size;
+      tx.setInt(blk, HEADER, FREE_END, pos);
+      return pos;
+   }
+   
+   private static int freeEnd(int stored) {
+      return (stored == 0) ? BLOCK_SIZE : stored;
+   }
+   
+   private boolean fitsAt(int strpos, String val) {
+      return strpos != 0
+            && val.length() <= tx.getString(blk, currentslot, strpos).length();
+   }
+   
+   private int entrypos() {
+      return DIRECTORY + currentslot * ENTRY_SIZE;
+   }
+   
+   private int recordpos() {
+      if (recpos < 0)
+         recpos = tx.getInt(blk, currentslot, entrypos() + INT_SIZE);
+      return recpos;
+   }
+   
+   private int fieldpos(int ordinal) {
+      return recordpos() + ti.offset(ordinal);
+   }
+}
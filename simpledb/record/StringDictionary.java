@@ -0,0 +1,145 @@
+package simpledb.record;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.tx.Transaction;
+
+/**
+ * The dictionary of a dictionary-encoded string field.
+ * Each distinct value of the field is assigned an integer code,
+ * which the field's records hold in place of the string.
+ * A record thus takes the space of an integer for the field,
+ * and values of the field can be compared by their codes.
+ * The code 0 denotes the empty string, which is the value
+ * of a field that has never been set.
+ * <p>
+ * The dictionary is kept in a table of its own, whose records
+ * hold a code and its value, and is read into memory when first used.
+ * Codes are never reassigned.
+ * A new value is added by a transaction of its own, which commits
+ * before the code is returned; the code is thus in the dictionary
+ * before any record holding it can be on disk, and remains valid
+ * if the transaction that stored it rolls back.
+ */
+public class StringDictionary {
+   private static Map<String,StringDictionary> dictionaries =
+         new HashMap<String,StringDictionary>();
+   
+   private TableInfo ti;
+   private int length;
+   private Map<String,Integer> codes = new ConcurrentHashMap<String,Integer>();
+   private volatile String[] values = new String[16];
+   private volatile boolean loaded = false;
+   private int count;
+   
+   /**
+    * Returns the dictionary of the specified field,
+    * creating it if necessary.
+    * @param tblname the name of the field's table
+    * @param fldname the name of the field
+    * @param length the length of the field
+    * @return the field's dictionary
+    */
+   static synchronized StringDictionary get(String tblname, String fldname, int length) {
+      String dictname = tblname + "_" + fldname + "_dict";
+      StringDictionary dict = dictionaries.get(dictname);
+      if (dict == null) {
+         dict = new StringDictionary(dictname, length);
+         dictionaries.put(dictname, dict);
+      }
+      return dict;
+   }
+   
+   private StringDictionary(String dictname, int length) {
+      Schema sch = new Schema();
+      sch.addIntField("code");
+      sch.addStringField("val", length);
+      ti = new TableInfo(dictname, sch);
+      this.length = length;
+      add(0, "");
+   }
+   
+   /**
+    * Returns the value having the specified code.
+    * @param code the code of a value
+    * @return the value
+    */
+   public String decode(int code) {
+      String[] vals = values();
+      if (code < 0 || code >= vals.length || vals[code] == null)
+         throw new RuntimeException("unknown code " + code + " in " + ti.fileName());
+      return vals[code];
+   }
+   
+   /**
+    * Returns the code of the specified value,
+    * or -1 if the value is not in the dictionary.
+    * A value that is not in the dictionary
+    * is not held by any record.
+    * @param val the value
+    * @return the code of the value, or -1
+    */
+   public int code(String val) {
+      values();
+      Integer code = codes.get(val);
+      return (code == null) ? -1 : code;
+   }
+   
+   /**
+    * Returns the code of the specified value,
+    * adding the value to the dictionary if necessary.
+    * @param val the value
+    * @return the code of the value
+    */
+   public synchronized int encode(String val) {
+      int code = code(val);
+      if (code >= 0)
+         return code;
+      if (val.length() > length)
+         throw new RuntimeException("value too long for " + ti.fileName() + ": " + val);
+      code = count;
+      Transaction tx = new Transaction();
+      RecordFile rf = new RecordFile(ti, tx);
+      rf.insertRow(new Object[] {code, val});
+      rf.close();
+      tx.commit();
+      add(code, val);
+      return code;
+   }
+   
+   /**
+    * Returns the values indexed by their codes,
+    * reading the dictionary if it has not yet been read.
+    */
+   private String[] values() {
+      if (!loaded) {
+         synchronized (this) {
+            if (!loaded)
+               load();
+         }
+      }
+      return values;
+   }
+   
+   private void load() {
+      Transaction tx = new Transaction();
+      RecordFile rf = new RecordFile(ti, tx);
+      while (rf.next())
+         add(rf.getInt(0), rf.getString(1));
+      rf.close();
+      tx.commit();
+      loaded = true;
+   }
+   
+   private void add(int code, String val) {
+      String[] vals = values;
+      if (code >= vals.length)
+         vals = Arrays.copyOf(vals, Math.max(code + 1, 2 * vals.length));
+      vals[code] = val;
+      count = Math.max(count, code + 1);
+      // publish the value before its code, so that whoever
+      // finds the code can decode it
+      values = vals;
+      codes.put(val, code);
+   }
+}
@@ -6,32 +6,72 @@ import java.util.*;
 
 /**
  * The metadata about a table and its records.
+ * A table is stored in one of three formats.
+ * In the {@link #FIXED} format, each record has a fixed-size
+ * slot, in which every string field takes its maximum length.
+ * In the {@link #SLOTTED} format, each block has a slot directory
+ * pointing to variable-length records, in which
+ * every string takes just the space of its characters.
+ * In the {@link #PAX} format, each block holds the same records
+ * as a fixed-slot block, but stores them column by column,
+ * so that the values of each field are contiguous.
+ * In every format, a dictionary-encoded string field
+ * takes the space of an integer.
  * @author Edward Sciore
  */
 public class TableInfo {
+   /**
+    * The storage formats of a table.
+    */
+   public static final int FIXED = 0, SLOTTED = 1, PAX = 2;
+   
    private Schema schema;
    private Map<String,Integer> offsets;
+   private int[] ordinalOffsets;
+   private StringDictionary[] dictionaries;
+   private ZoneMap zonemap;
    private int recordlen;
    private String tblname;
+   private int format;
    
    /**
-    * Creates a TableInfo object, given a table name
-    * and schema. The constructor calculates the
-    * physical offset of each field.
+    * Creates a TableInfo object for a table
+    * of the fixed-slot format.
     * This constructor is used when a table is created. 
     * @param tblname the name of the table
     * @param schema the schema of the table's records
     */
    public TableInfo(String tblname, Schema schema) {
+      this(tblname, schema, FIXED);
+   }
+   
+   /**
+    * Creates a TableInfo object, given a table name,
+    * schema, and storage format. The constructor calculates the
+    * physical offset of each field.
+    * In the slotted format, a record holds an integer for
+    * each field, which for a string field is the
+    * position of the string in the block.
+    * In the PAX format, the offset of a field determines
+    * the position of its minipage.
+    * This constructor is used when a table is created. 
+    * @param tblname the name of the table
+    * @param schema the schema of the table's records
+    * @param format FIXED, SLOTTED or PAX
+    */
+   public TableInfo(String tblname, Schema schema, int format) {
       this.schema = schema;
       this.tblname = tblname;
+      this.format = format;
       offsets  = new HashMap<String,Integer>();
       int pos = 0;
       for (String fldname : schema.fields()) {
          offsets.put(fldname, pos);
-         pos += lengthInBytes(fldname);
+         pos += (format == SLOTTED) ? INT_SIZE : lengthInBytes(fldname);
       }
       recordlen = pos;
+      ordinalOffsets = ordinalOffsets();
+      dictionaries = dictionaries();
    }
    
    /**
@@ -43,12 +83,16 @@ public class TableInfo {
     * @param schema the schema of the table's records
     * @param offsets the already-calculated offsets of the fields within a record
     * @param recordlen the already-calculated length of each record
+    * @param format the storage format of the table
     */
-   public TableInfo(String tblname, Schema schema, Map<String,Integer> offsets, int recordlen) {
+   public TableInfo(String tblname, Schema schema, Map<String,Integer> offsets, int recordlen, int format) {
       this.tblname   = tblname;
       this.schema    = schema;
       this.offsets   = offsets;
       this.recordlen = recordlen;
+      this.format    = format;
+      ordinalOffsets = ordinalOffsets();
+      dictionaries   = dictionaries();
    }
    
    /**
@@ -78,17 +122,74 @@ public class TableInfo {
       return offsets.get(fldname);
    }
    
+   /**
+    * Returns the offset within a record of the field
+    * having the specified {@link Schema#ordinal(String) ordinal}.
+    * @param ordinal the ordinal of the field
+    * @return the offset of that field within a record
+    */
+   public int offset(int ordinal) {
+      return ordinalOffsets[ordinal];
+   }
+   
+   /**
+    * Returns the dictionary of the field having the
+    * specified ordinal, or null if the field is not
+    * {@link Schema#isEncoded(String) dictionary-encoded}.
+    * @param ordinal the ordinal of the field
+    * @return the field's dictionary, or null
+    */
+   public StringDictionary dictionary(int ordinal) {
+      return dictionaries[ordinal];
+   }
+   
+   /**
+    * Returns the zone map of the table.
+    * @return the table's zone map
+    */
+   public ZoneMap zoneMap() {
+      if (zonemap == null)
+         zonemap = ZoneMap.get(this);
+      return zonemap;
+   }
+   
    /**
     * Returns the length of a record, in bytes.
+    * In the slotted format, this length excludes the
+    * characters of the record's strings.
     * @return the length in bytes of a record
     */
    public int recordLength() {
       return recordlen;
    }
    
+   /**
+    * Returns the storage format of the table.
+    * @return FIXED, SLOTTED or PAX
+    */
+   public int format() {
+      return format;
+   }
+   
+   private int[] ordinalOffsets() {
+      int[] result = new int[schema.fields().size()];
+      for (String fldname : schema.fields())
+         result[schema.ordinal(fldname)] = offsets.get(fldname);
+      return result;
+   }
+   
+   private StringDictionary[] dictionaries() {
+      StringDictionary[] result = new StringDictionary[schema.fields().size()];
+      for (String fldname : schema.fields())
+         if (schema.isEncoded(fldname))
+            result[schema.ordinal(fldname)] =
+                  StringDictionary.get(tblname, fldname, schema.length(fldname));
+      return result;
+   }
+   
    private int lengthInBytes(String fldname) {
       int fldtype = schema.type(fldname);
-      if (fldtype == INTEGER)
+      if (fldtype == INTEGER || schema.isEncoded(fldname))
          return INT_SIZE;
       else
          return STR_SIZE(schema.length(fldname));
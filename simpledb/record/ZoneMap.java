@@ -0,0 +1,227 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.file.Block;
+import simpledb.tx.Transaction;
+
+/**
+ * The zone map of a table, which holds the least and greatest
+ * value of each field among the records of each block.
+ * A scan looking for a value of a field can then skip
+ * the blocks whose zones do not include the value.
+ * <p>
+ * The zone of a block is built when a scan first asks about it,
+ * by reading the block in the scan's transaction,
+ * under a shared lock that it keeps until it ends.
+ * Thereafter every value written to the block widens its zone;
+ * a zone is never narrowed, so that values that are deleted,
+ * or that are rolled back, remain included.
+ * A zone is thus conservative: it may include values
+ * that the block does not hold, but never excludes one that it does.
+ * Zones are kept only in memory, and are not logged;
+ * after a restart they are built again as scans need them.
+ * <p>
+ * A zone is built only by a locking transaction that has not
+ * modified the block, and not while the block is locked by another
+ * transaction, since the block may then hold values that are not
+ * committed, or lack committed values that a rollback restores;
+ * the block is then simply not skipped.
+ * The writes of an optimistic transaction are applied to the block
+ * at commit, without widening its zone; the zone is then discarded,
+ * and built again when a scan next asks about the block.
+ * <p>
+ * A snapshot transaction does not build zones, but uses those
+ * built no later than its snapshot, by the commit sequence number
+ * current when the block was shared.
+ * Every value that such a snapshot sees in the block
+ * was either in the block when the zone was built,
+ * or was written afterwards, and so widened the zone.
+ * A zone built later may lack values that were since deleted
+ * but that the snapshot still sees, and so is not used.
+ */
+public class ZoneMap {
+   private static Map<String,ZoneMap> zonemaps = new HashMap<String,ZoneMap>();
+   
+   private TableInfo ti;
+   private Map<Integer,Zone> zones = new ConcurrentHashMap<Integer,Zone>();
+   
+   /**
+    * Returns the zone map of the specified table,
+    * creating it if necessary.
+    * A temporary table is given a map of its own,
+    * which is not kept, since its blocks are never skipped.
+    * @param ti the table's metadata
+    * @return the table's zone map
+    */
+   static synchronized ZoneMap get(TableInfo ti) {
+      if (ti.fileName().startsWith("temp"))
+         return new ZoneMap(ti);
+      ZoneMap zm = zonemaps.get(ti.fileName());
+      if (zm == null) {
+         zm = new ZoneMap(ti);
+         zonemaps.put(ti.fileName(), zm);
+      }
+      return zm;
+   }
+   
+   private ZoneMap(TableInfo ti) {
+      this.ti = ti;
+   }
+   
+   /**
+    * Discards the zone of the specified block, if it has one,
+    * so that it is built again from the block's records.
+    * This is for a transaction that has modified the block
+    * without widening its zone; it must hold an exclusive lock
+    * on the block, so that no zone is built until it commits.
+    * @param blk a reference to the block
+    */
+   public static void discard(Block blk) {
+      ZoneMap zm;
+      synchronized (ZoneMap.class) {
+         zm = zonemaps.get(blk.fileName());
+      }
+      if (zm != null)
+         zm.zones.remove(blk.number());
+   }
+   
+   /**
+    * Returns false if no record of the specified block
+    * can have the specified value in the field having
+    * the specified ordinal.
+    * The block's zone is built by the specified transaction
+    * if it does not exist; if it cannot be built,
+    * or was built too late for the transaction's snapshot,
+    * the method returns true.
+    * @param blknum the number of the block
+    * @param ordinal the ordinal of the field
+    * @param val the value, as an Integer or a String
+    * @param tx the transaction scanning the table
+    * @return false if the block can be skipped
+    */
+   public boolean mayContain(int blknum, int ordinal, Object val, Transaction tx) {
+      Zone zone = zones.get(blknum);
+      if (zone == null)
+         zone = build(blknum, tx);
+      else if (tx.snapshotCSN() >= 0 && zone.csn > tx.snapshotCSN())
+         return true;
+      return zone == null || zone.includes(ordinal, val);
+   }
+   
+   /**
+    * Returns true if the specified block has a zone.
+    * @param blknum the number of the block
+    * @return true if the block has a zone
+    */
+   boolean hasZone(int blknum) {
+      return zones.containsKey(blknum);
+   }
+   
+   /**
+    * Widens the zone of the specified block, if it has one,
+    * to include the specified value of the field
+    * having the specified ordinal.
+    * @param blknum the number of the block
+    * @param ordinal the ordinal of the field
+    * @param val the value, as an Integer or a String
+    */
+   void widen(int blknum, int ordinal, Object val) {
+      Zone zone = zones.get(blknum);
+      if (zone != null)
+         zone.widen(ordinal, val);
+   }
+   
+   /**
+    * Widens the zone of the specified block, if it has one,
+    * to include the specified values of a record's fields.
+    * @param blknum the number of the block
+    * @param vals the values of the record's fields
+    */
+   void widen(int blknum, Object[] vals) {
+      Zone zone = zones.get(blknum);
+      if (zone != null)
+         for (int i = 0; i < vals.length; i++)
+            zone.widen(i, vals[i]);
+   }
+   
+   /**
+    * Discards the zones of all blocks, so that they are
+    * built again from the blocks' records.
+    * This is for a transaction that has rewritten the table;
+    * it must hold an exclusive lock on the table, so that
+    * no zone is built until it commits or rolls back.
+    */
+   public void reset() {
+      zones.clear();
+   }
+   
+   /**
+    * Builds the zone of the specified block from its records,
+    * in the specified transaction, which shares the block.
+    * The block stays shared until the transaction ends,
+    * so that a writer that locks the block afterwards
+    * widens the registered zone.
+    * Returns null if the transaction does not lock,
+    * or may have modified the block, or if the block is locked
+    * by another transaction.
+    */
+   private Zone build(int blknum, Transaction tx) {
+      Block blk = new Block(ti.fileName(), blknum);
+      if (!tx.isLocking() || tx.mayHaveModified(blk))
+         return null;
+      if (!tx.trySLock(blk))
+         return null;
+      Schema sch = ti.schema();
+      int nfields = sch.fields().size();
+      Zone zone = new Zone(nfields, Transaction.currentCSN());
+      RecordPage rp = RecordPage.open(blk, ti, tx);
+      while (rp.next()) {
+         for (int i = 0; i < nfields; i++) {
+            if (sch.type(sch.fieldName(i)) == INTEGER)
+               zone.widen(i, rp.getInt(i));
+            else
+               zone.widen(i, rp.getString(i));
+         }
+      }
+      rp.close();
+      Zone current = zones.putIfAbsent(blknum, zone);
+      return (current == null) ? zone : current;
+   }
+   
+   /**
+    * The least and greatest value of each field
+    * among the records of a block, and the commit
+    * sequence number current when it was built.
+    */
+   private static class Zone {
+      private Object[] min, max;
+      private int csn;
+   
+      Zone(int nfields, int csn) {
+         min = new Object[nfields];
+         max = new Object[nfields];
+         this.csn = csn;
+      }
+   
+      @SuppressWarnings("unchecked")
+      synchronized void widen(int ordinal, Object val) {
+         Comparable<Object> v = (Comparable<Object>) val;
+         if (min[ordinal] == null || v.compareTo(min[ordinal]) < 0)
+            min[ordinal] = val;
+         if (max[ordinal] == null || v.compareTo(max[ordinal]) > 0)
+            max[ordinal] = val;
+      }
+   
+      @SuppressWarnings("unchecked")
+      synchronized boolean includes(int ordinal, Object val) {
+         if (min[ordinal] == null)
+            return false;
+         if (min[ordinal].getClass() != val.getClass())
+            return true;
+         Comparable<Object> v = (Comparable<Object>) val;
+         return v.compareTo(min[ordinal]) >= 0 && v.compareTo(max[ordinal]) <= 0;
+      }
+   }
+}
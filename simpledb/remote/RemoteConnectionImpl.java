@@ -1,6 +1,7 @@
 package simpledb.remote;
 
 import simpledb.tx.Transaction;
+import java.util.*;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 
@@ -11,14 +12,14 @@ import java.rmi.server.UnicastRemoteObject;
 @SuppressWarnings("serial") 
 class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnection {
    private Transaction tx;
+   private Collection<RemoteResultSetImpl> resultsets = new HashSet<RemoteResultSetImpl>();
    
    /**
-    * Creates a remote connection
-    * and begins a new transaction for it.
+    * Creates a remote connection.
+    * A transaction is begun by the connection's first update.
     * @throws RemoteException
     */
    RemoteConnectionImpl() throws RemoteException {
-      tx = new Transaction();
    }
    
    /**
@@ -31,40 +32,69 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    
    /**
     * Closes the connection.
-    * The current transaction is committed.
+    * The result sets that are still open are closed,
+    * and the current transaction is committed.
     * @see simpledb.remote.RemoteConnection#close()
     */
    public void close() throws RemoteException {
-      tx.commit();
+      for (RemoteResultSetImpl rs : new ArrayList<RemoteResultSetImpl>(resultsets))
+         rs.close();
+      if (tx != null)
+         tx.commit();
+      tx = null;
    }
    
 // The following methods are used by the server-side classes.
    
    /**
     * Returns the transaction currently associated with
-    * this connection.
+    * this connection, beginning one if necessary.
+    * This is the locking transaction used by updates;
+    * each query runs in a snapshot transaction of its own,
+    * which belongs to its result set.
     * @return the transaction associated with this connection
     */
-   Transaction getTransaction() {  
+   Transaction getTransaction() {
+      if (tx == null)
+         tx = new Transaction();
       return tx;
    }
    
    /**
-    * Commits the current transaction,
-    * and begins a new one.
+    * Records that the specified result set is open,
+    * so that it is closed with the connection.
+    * @param rs the result set
+    */
+   void resultSetOpened(RemoteResultSetImpl rs) {
+      resultsets.add(rs);
+   }
+   
+   /**
+    * Records that the specified result set is closed.
+    * @param rs the result set
+    */
+   void resultSetClosed(RemoteResultSetImpl rs) {
+      resultsets.remove(rs);
+   }
+   
+   /**
+    * Commits the current transaction, if any.
+    * The next statement begins a new one.
     */
    void commit() {
-      tx.commit();
-      tx = new Transaction();
+      if (tx != null)
+         tx.commit();
+      tx = null;
    }
    
    /**
-    * Rolls back the current transaction,
-    * and begins a new one.
+    * Rolls back the current transaction, if any.
+    * The next statement begins a new one.
     */
    void rollback() {
-      tx.rollback();
-      tx = new Transaction();
+      if (tx != null)
+         tx.rollback();
+      tx = null;
    }
 }
 
@@ -2,6 +2,7 @@ package simpledb.remote;
 
 import simpledb.record.Schema;
 import simpledb.query.*;
+import simpledb.tx.Transaction;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 
@@ -13,19 +14,25 @@ import java.rmi.server.UnicastRemoteObject;
 class RemoteResultSetImpl extends UnicastRemoteObject implements RemoteResultSet {
    private Scan s;
    private Schema sch;
+   private Transaction tx;
    private RemoteConnectionImpl rconn;
 
    /**
     * Creates a RemoteResultSet object.
     * The specified plan is opened, and the scan is saved.
+    * The result set owns the plan's transaction,
+    * which it commits when it is closed.
     * @param plan the query plan
-    * @param rconn TODO
+    * @param tx the transaction of the plan
+    * @param rconn the connection of the result set
     * @throws RemoteException
     */
-   public RemoteResultSetImpl(Plan plan, RemoteConnectionImpl rconn) throws RemoteException {
+   public RemoteResultSetImpl(Plan plan, Transaction tx, RemoteConnectionImpl rconn) throws RemoteException {
       s = plan.open();
       sch = plan.schema();
+      this.tx = tx;
       this.rconn = rconn;
+      rconn.resultSetOpened(this);
    }
 
    /**
@@ -38,7 +45,7 @@ class RemoteResultSetImpl extends UnicastRemoteObject implements RemoteResultSet
 	      return s.next();
       }
       catch(RuntimeException e) {
-         rconn.rollback();
+         rollback();
          throw e;
       }
    }
@@ -54,7 +61,7 @@ class RemoteResultSetImpl extends UnicastRemoteObject implements RemoteResultSet
 	      return s.getInt(fldname);
       }
       catch(RuntimeException e) {
-         rconn.rollback();
+         rollback();
          throw e;
       }
    }
@@ -70,7 +77,7 @@ class RemoteResultSetImpl extends UnicastRemoteObject implements RemoteResultSet
 	      return s.getString(fldname);
       }
       catch(RuntimeException e) {
-         rconn.rollback();
+         rollback();
          throw e;
       }
    }
@@ -85,12 +92,30 @@ class RemoteResultSetImpl extends UnicastRemoteObject implements RemoteResultSet
    }
 
    /**
-    * Closes the result set by closing its scan.
+    * Closes the result set by closing its scan,
+    * and commits its transaction.
+    * Nothing is done if the result set is already closed.
     * @see simpledb.remote.RemoteResultSet#close()
     */
    public void close() throws RemoteException {
+      if (tx == null)
+         return;
       s.close();
-      rconn.commit();
+      tx.commit();
+      tx = null;
+      rconn.resultSetClosed(this);
+   }
+   
+   /**
+    * Rolls back the result set's transaction after an error,
+    * which unpins the scan's buffers and closes the result set.
+    */
+   private void rollback() {
+      if (tx == null)
+         return;
+      tx.rollback();
+      tx = null;
+      rconn.resultSetClosed(this);
    }
 }
 
@@ -23,16 +23,20 @@ class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement
     * The method calls the query planner to create a plan
     * for the query. It then sends the plan to the
     * RemoteResultSetImpl constructor for processing.
+    * The query runs in a snapshot transaction of its own,
+    * which takes no locks and writes no log records.
+    * The transaction lasts until the result set is closed,
+    * so the connection can run updates while it is open.
     * @see simpledb.remote.RemoteStatement#executeQuery(java.lang.String)
     */
    public RemoteResultSet executeQuery(String qry) throws RemoteException {
+      Transaction tx = new Transaction(true);
       try {
-         Transaction tx = rconn.getTransaction();
          Plan pln = SimpleDB.planner().createQueryPlan(qry, tx);
-         return new RemoteResultSetImpl(pln, rconn);
+         return new RemoteResultSetImpl(pln, tx, rconn);
       }
       catch(RuntimeException e) {
-         rconn.rollback();
+         tx.rollback();
          throw e;
       }
    }
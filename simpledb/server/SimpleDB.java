@@ -2,8 +2,10 @@ package simpledb.server;
 
 import simpledb.file.FileMgr;
 import simpledb.buffer.*;
-import simpledb.tx.Transaction;
+import simpledb.tx.*;
+import simpledb.tx.recovery.*;
 import simpledb.log.LogMgr;
+import simpledb.record.RowCache;
 import simpledb.metadata.MetadataMgr;
 import simpledb.planner.*;
 import simpledb.opt.HeuristicQueryPlanner;
@@ -25,11 +27,16 @@ import simpledb.index.planner.IndexUpdatePlanner;
 public class SimpleDB {
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static long ASYNC_COMMIT_WINDOW = 50; // milliseconds
+   public static long ROW_CACHE_SIZE = 0; // bytes; 0 disables the row cache
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
    private static LogMgr      logm;
+   private static TransactionManager tm;
    private static MetadataMgr mdm;
+   private static CheckpointScheduler cs;
+   private static CommitFlusher cf;
    
    /**
     * Initializes the system.
@@ -38,6 +45,7 @@ public class SimpleDB {
     */
    public static void init(String dirname,int clockcounter) {
 	  initFileLogAndBufferMgr(dirname,clockcounter);
+      RowCache.setCapacity(ROW_CACHE_SIZE);
       Transaction tx = new Transaction();
       boolean isnew = fm.isNew();
       if (isnew)
@@ -48,6 +56,10 @@ public class SimpleDB {
       }
       initMetadataMgr(isnew, tx);
       tx.commit();
+      cs = new CheckpointScheduler();
+      cs.start();
+      cf = new CommitFlusher(ASYNC_COMMIT_WINDOW);
+      cf.start();
    }
    
    // The following initialization methods are useful for 
@@ -72,12 +84,14 @@ public class SimpleDB {
    }
    
    /**
-    * Initializes the file, log, and buffer managers.
+    * Initializes the file, log, and buffer managers,
+    * and the transaction manager.
     * @param dirname the name of the database directory
     */
    public static void initFileLogAndBufferMgr(String dirname,int clockcounter) {
 	  initFileAndLogMgr(dirname);
 	  bm = new BufferMgr(BUFFER_SIZE,clockcounter);
+	  tm = new TransactionManager();
    }
    
    /**
@@ -94,6 +108,9 @@ public class SimpleDB {
    public static BufferMgr   bufferMgr() { return bm; }
    public static LogMgr      logMgr()    { return logm; }
    public static MetadataMgr mdMgr()     { return mdm; }
+   public static TransactionManager txMgr() { return tm; }
+   public static CheckpointScheduler checkpointScheduler() { return cs; }
+   public static CommitFlusher commitFlusher() { return cf; }
    
    /**
     * Creates a planner for SQL commands.
@@ -62,6 +62,14 @@ class BufferList {
          buffers.remove(blk);
    }
    
+   /**
+    * Returns the number of pins held by this transaction.
+    * @return the number of pins
+    */
+   int size() {
+      return pins.size();
+   }
+   
    /**
     * Unpins any buffers still pinned by this transaction.
     */
@@ -3,8 +3,10 @@ package simpledb.tx;
 import simpledb.server.SimpleDB;
 import simpledb.file.Block;
 import simpledb.buffer.*;
+import simpledb.record.*;
 import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import java.util.*;
 
 /**
  * Provides transaction management for clients,
@@ -13,12 +15,39 @@ import simpledb.tx.concurrency.ConcurrencyMgr;
  * @author Edward Sciore
  */
 public class Transaction {
-   private static int nextTxNum = 0;
+   /**
+    * The concurrency control modes of a transaction.
+    * A locking transaction locks each record or block before accessing it.
+    * A snapshot transaction reads without locking, from the
+    * database as it was when the transaction started.
+    * An optimistic transaction reads without locking,
+    * defers its writes, and is validated at commit.
+    */
+   public static final int LOCKING    = ConcurrencyMgr.LOCKING,
+                           SNAPSHOT   = ConcurrencyMgr.SNAPSHOT,
+                           OPTIMISTIC = ConcurrencyMgr.OPTIMISTIC;
+   
+   /**
+    * The priorities of a transaction.
+    * An interactive transaction can be given a higher priority
+    * than a batch job, so that its lock requests are granted first.
+    */
+   public static final int LOW_PRIORITY    = ConcurrencyMgr.LOW_PRIORITY,
+                           NORMAL_PRIORITY = ConcurrencyMgr.NORMAL_PRIORITY,
+                           HIGH_PRIORITY   = ConcurrencyMgr.HIGH_PRIORITY;
+   
    private static final int END_OF_FILE = -1;
    private RecoveryMgr    recoveryMgr;
    private ConcurrencyMgr concurMgr;
+   private TransactionInfo info;
    private int txnum;
+   private boolean asyncCommit = false;
    private BufferList myBuffers = new BufferList();
+   private Set<Block> loadedBlocks = new HashSet<Block>();
+   private Map<Block,Map<Integer,Object>> deferredWrites =
+         new LinkedHashMap<Block,Map<Integer,Object>>();
+   private Map<Block,Set<Integer>> deferredRecords =
+         new HashMap<Block,Set<Integer>>();
    
    /**
     * Creates a new transaction and its associated 
@@ -33,42 +62,124 @@ public class Transaction {
     * is called first.
     */
    public Transaction() {
-      txnum       = nextTxNumber();
+      this(LOCKING);
+   }
+   
+   /**
+    * Creates a new transaction, which may be a snapshot transaction.
+    * A snapshot transaction reads the database as it was
+    * when the transaction started, without taking locks,
+    * so that it neither waits for writers nor delays them.
+    * It may not modify any files except temporary ones.
+    * @param snapshot true if the transaction reads from a snapshot
+    */
+   public Transaction(boolean snapshot) {
+      this(snapshot ? SNAPSHOT : LOCKING);
+   }
+   
+   /**
+    * Creates a new transaction having the specified
+    * concurrency control mode.
+    * An optimistic transaction suits workloads that rarely conflict:
+    * it takes no locks until it commits, at which point it
+    * is validated, and fails if another transaction
+    * has modified a block that it read.
+    * The transaction is registered in the active-transaction
+    * table of the {@link TransactionManager}.
+    * No log record is written until the transaction first
+    * modifies the database, so a transaction that only reads
+    * commits without any disk I/O.
+    * @param mode LOCKING, SNAPSHOT, or OPTIMISTIC
+    */
+   public Transaction(int mode) {
+      TransactionManager txMgr = SimpleDB.txMgr();
+      txnum       = txMgr.nextTxNumber();
       recoveryMgr = new RecoveryMgr(txnum);
-      concurMgr   = new ConcurrencyMgr();
+      concurMgr   = new ConcurrencyMgr(txnum, mode);
+      info        = txMgr.begin(this, txnum, mode);
    }
    
    /**
     * Commits the current transaction.
-    * Flushes all modified buffers (and their log records),
-    * writes and flushes a commit record to the log,
+    * Writes and flushes a commit record to the log,
+    * if the transaction modified the database,
     * releases all locks, and unpins any pinned buffers.
+    * An asynchronous commit does not wait for the flush.
+    * Modified buffers are not flushed; their updates
+    * can be redone from the log after a crash.
+    * An optimistic transaction is first validated,
+    * and then performs its deferred writes.
+    * If validation fails, the method throws a
+    * {@link simpledb.tx.concurrency.ValidationException},
+    * and the transaction must then be rolled back.
     */
    public void commit() {
-      recoveryMgr.commit();
-      concurMgr.release();
+      info.setState(TransactionInfo.COMMITTING);
+      if (concurMgr.isOptimistic()) {
+         concurMgr.validate();
+         installDeferredWrites();
+      }
+      if (!loadedBlocks.isEmpty()) {
+         SimpleDB.bufferMgr().flushAll(txnum);
+         loadedBlocks.clear();
+      }
+      recoveryMgr.commit(asyncCommit);
+      concurMgr.commit();
       myBuffers.unpinAll();
+      SimpleDB.txMgr().end(txnum);
       System.out.println("transaction " + txnum + " committed");
    }
    
+   /**
+    * Specifies whether the transaction commits asynchronously.
+    * An asynchronous commit returns without waiting for
+    * the commit record to be written to disk; the record
+    * is written within the system's asynchronous-commit window.
+    * A crash within that window may lose the transaction,
+    * but cannot leave it partially applied.
+    * @param async true if the transaction should commit asynchronously
+    */
+   public void setAsyncCommit(boolean async) {
+      asyncCommit = async;
+   }
+   
+   /**
+    * Sets the priority of the transaction's lock requests.
+    * A waiting request of a higher-priority transaction is
+    * granted before those of lower-priority transactions,
+    * which it may also abort under the wait-die
+    * or wound-wait policy.
+    * @param priority LOW_PRIORITY, NORMAL_PRIORITY, or HIGH_PRIORITY
+    */
+   public void setPriority(int priority) {
+      concurMgr.setPriority(priority);
+   }
+   
    /**
     * Rolls back the current transaction.
     * Undoes any modified values,
-    * flushes those buffers,
     * writes and flushes a rollback record to the log,
     * releases all locks, and unpins any pinned buffers.
+    * The deferred writes of an optimistic transaction
+    * are discarded.
     */
    public void rollback() {
+      info.setState(TransactionInfo.ROLLING_BACK);
+      deferredWrites.clear();
+      deferredRecords.clear();
+      loadedBlocks.clear();
       recoveryMgr.rollback();
-      concurMgr.release();
+      concurMgr.rollback();
       myBuffers.unpinAll();
+      SimpleDB.txMgr().end(txnum);
       System.out.println("transaction " + txnum + " rolled back");
    }
    
    /**
     * Flushes all modified buffers.
     * Then goes through the log, rolling back all
-    * uncommitted transactions.  Finally, 
+    * uncommitted transactions and redoing the updates
+    * of committed ones.  Finally, 
     * writes a quiescent checkpoint record to the log.
     * This method is called only during system startup,
     * before user transactions begin.
@@ -102,14 +213,17 @@ public class Transaction {
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
     * then it calls the buffer to retrieve the value.
+    * A snapshot transaction instead reads the value
+    * from the version of the block in its snapshot,
+    * and an optimistic transaction reads its own
+    * deferred write of the value, if any.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the integer stored at that offset
     */
    public int getInt(Block blk, int offset) {
       concurMgr.sLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      return buff.getInt(offset);
+      return readInt(blk, offset);
    }
    
    /**
@@ -117,54 +231,291 @@ public class Transaction {
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
     * then it calls the buffer to retrieve the value.
+    * A snapshot transaction instead reads the value
+    * from the version of the block in its snapshot,
+    * and an optimistic transaction reads its own
+    * deferred write of the value, if any.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the string stored at that offset
     */
    public String getString(Block blk, int offset) {
       concurMgr.sLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      return buff.getString(offset);
+      return readString(blk, offset);
    }
    
    /**
     * Stores an integer at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
+    * The method first obtains an XLock on the block,
+    * and saves the current value for snapshot readers.
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
     * Finally, it calls the buffer to store the value,
     * passing in the LSN of the log record and the transaction's id. 
+    * An optimistic transaction instead defers the write until commit.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setInt(Block blk, int offset, int val) {
       concurMgr.xLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
-      buff.setInt(offset, val, txnum, lsn);
+      writeInt(blk, -1, offset, val);
    }
    
    /**
     * Stores a string at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
+    * The method first obtains an XLock on the block,
+    * and saves the current value for snapshot readers.
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
     * Finally, it calls the buffer to store the value,
     * passing in the LSN of the log record and the transaction's id. 
+    * An optimistic transaction instead defers the write until commit.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setString(Block blk, int offset, String val) {
       concurMgr.xLock(blk);
+      writeString(blk, -1, offset, val);
+   }
+   
+   /**
+    * Returns the integer value stored at the specified offset
+    * of the specified record.
+    * The method is like {@link #getInt(Block, int)},
+    * except that it obtains an SLock on the record
+    * instead of the whole block.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @param offset the byte offset within the block
+    * @return the integer stored at that offset
+    */
+   public int getInt(Block blk, int id, int offset) {
+      concurMgr.sLockRecord(blk, id);
+      return readInt(blk, offset);
+   }
+   
+   /**
+    * Returns the string value stored at the specified offset
+    * of the specified record.
+    * The method is like {@link #getString(Block, int)},
+    * except that it obtains an SLock on the record
+    * instead of the whole block.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @param offset the byte offset within the block
+    * @return the string stored at that offset
+    */
+   public String getString(Block blk, int id, int offset) {
+      concurMgr.sLockRecord(blk, id);
+      return readString(blk, offset);
+   }
+   
+   /**
+    * Stores an integer at the specified offset 
+    * of the specified record.
+    * The method is like {@link #setInt(Block, int, int)},
+    * except that it obtains an XLock on the record
+    * instead of the whole block, so that other transactions
+    * may modify the other records of the block.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    */
+   public void setInt(Block blk, int id, int offset, int val) {
+      if (loadedBlocks.contains(blk)) {
+         myBuffers.getBuffer(blk).setInt(offset, val, txnum, -1);
+         return;
+      }
+      concurMgr.xLockRecord(blk, id);
+      writeInt(blk, id, offset, val);
+   }
+   
+   /**
+    * Stores a string at the specified offset 
+    * of the specified record.
+    * The method is like {@link #setString(Block, int, String)},
+    * except that it obtains an XLock on the record
+    * instead of the whole block, so that other transactions
+    * may modify the other records of the block.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    */
+   public void setString(Block blk, int id, int offset, String val) {
+      if (loadedBlocks.contains(blk)) {
+         myBuffers.getBuffer(blk).setString(offset, val, txnum, -1);
+         return;
+      }
+      concurMgr.xLockRecord(blk, id);
+      writeString(blk, id, offset, val);
+   }
+   
+   /**
+    * Stores several values in the specified record at once,
+    * such as the values of its fields.
+    * The method obtains an XLock on the record once,
+    * saves the current values for snapshot readers,
+    * and logs the modification in a single log record
+    * before storing the values in the buffer.
+    * An optimistic transaction defers each write, as usual.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @param offsets the byte offsets of the values within the block
+    * @param vals the values to be stored, as Integers and Strings
+    */
+   public void setRow(Block blk, int id, int[] offsets, Object[] vals) {
+      if (!loadedBlocks.contains(blk))
+         concurMgr.xLockRecord(blk, id);
+      if (concurMgr.defersWrites(blk)) {
+         for (int i = 0; i < offsets.length; i++)
+            deferWrite(blk, id, offsets[i], vals[i]);
+         return;
+      }
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
-      buff.setString(offset, val, txnum, lsn);
+      long[] lsns;
+      if (loadedBlocks.contains(blk)) {
+         lsns = new long[offsets.length];
+         Arrays.fill(lsns, -1);
+      }
+      else {
+         for (int i = 0; i < offsets.length; i++) {
+            Object oldval = (vals[i] instanceof Integer) ? buff.getInt(offsets[i])
+                                                         : buff.getString(offsets[i]);
+            concurMgr.saveVersion(buff, offsets[i], oldval);
+         }
+         lsns = recoveryMgr.setRow(buff, offsets, vals);
+      }
+      for (int i = 0; i < offsets.length; i++) {
+         if (vals[i] instanceof Integer)
+            buff.setInt(offsets[i], (Integer) vals[i], txnum, lsns[i]);
+         else
+            buff.setString(offsets[i], (String) vals[i], txnum, lsns[i]);
+      }
+   }
+   
+   /**
+    * Returns the commit sequence number of the transaction's snapshot,
+    * or -1 if it is not a snapshot transaction.
+    * The snapshot sees exactly the transactions whose
+    * commit sequence number is no greater.
+    * @return the commit sequence number of the snapshot, or -1
+    */
+   public int snapshotCSN() {
+      return concurMgr.snapshotCSN();
+   }
+   
+   /**
+    * Returns the commit sequence number of the most recently
+    * committed transaction that modified the database.
+    * A snapshot taken now sees that transaction and every earlier one.
+    * @return the current commit sequence number
+    */
+   public static int currentCSN() {
+      return ConcurrencyMgr.currentCSN();
+   }
+   
+   /**
+    * Returns true if the transaction locks the data that it reads,
+    * that is, if it is neither a snapshot nor an optimistic transaction.
+    * @return true if the transaction reads under locks
+    */
+   public boolean isLocking() {
+      return !concurMgr.isSnapshot() && !concurMgr.isOptimistic();
+   }
+   
+   /**
+    * Obtains an SLock on the specified block, without reading it.
+    * @param blk a reference to the disk block
+    */
+   public void sLock(Block blk) {
+      concurMgr.sLock(blk);
+   }
+   
+   /**
+    * Obtains an SLock on the specified block, unless another
+    * transaction holds a conflicting lock on it.
+    * @param blk a reference to the disk block
+    * @return false if the lock could not be granted immediately
+    */
+   public boolean trySLock(Block blk) {
+      return concurMgr.trySLock(blk);
+   }
+   
+   /**
+    * Obtains an SLock on the specified record, without reading it.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    */
+   public void sLockRecord(Block blk, int id) {
+      concurMgr.sLockRecord(blk, id);
+   }
+   
+   /**
+    * Returns true if the transaction may have modified
+    * the specified record, and so its values
+    * may not yet be committed.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @return true if the record may have been modified
+    */
+   public boolean mayHaveModified(Block blk, int id) {
+      return concurMgr.mayHaveModified(blk, id);
+   }
+   
+   /**
+    * Returns true if the transaction may have modified
+    * some record of the specified block.
+    * @param blk a reference to the disk block
+    * @return true if the block may have been modified
+    */
+   public boolean mayHaveModified(Block blk) {
+      return concurMgr.mayHaveModified(blk);
+   }
+   
+   /**
+    * Obtains an XLock on the specified record,
+    * without reading or modifying it.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    */
+   public void xLockRecord(Block blk, int id) {
+      concurMgr.xLockRecord(blk, id);
+   }
+   
+   /**
+    * Obtains an exclusive lock on the specified record,
+    * unless another transaction holds a conflicting lock on it.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @return false if the lock could not be granted immediately
+    */
+   public boolean tryXLockRecord(Block blk, int id) {
+      return concurMgr.tryXLockRecord(blk, id);
+   }
+   
+   /**
+    * Returns the integer value stored at the
+    * specified offset of the specified block, without locking.
+    * The value may be uncommitted, and may change at any time;
+    * the method is meant only for finding a candidate record,
+    * which must then be locked and read again.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the integer currently stored at that offset
+    */
+   public int peekInt(Block blk, int offset) {
+      Object val = deferredValue(blk, offset);
+      if (val != null)
+         return (Integer) val;
+      return myBuffers.getBuffer(blk).getInt(offset);
    }
    
    /**
@@ -198,9 +549,195 @@ public class Transaction {
       return blk;
    }
    
-   private static synchronized int nextTxNumber() {
-      nextTxNum++;
-      System.out.println("new transaction: " + nextTxNum);
-      return nextTxNum;
+   /**
+    * Obtains an XLock on the specified file,
+    * so that no other transaction can lock any of its blocks.
+    * Snapshot and optimistic transactions cannot lock files.
+    * @param filename the name of the file
+    */
+   public void xLockFile(String filename) {
+      concurMgr.xLockFile(filename);
+   }
+   
+   /**
+    * Obtains an XLock on the specified file, unless
+    * another transaction is using the file.
+    * @param filename the name of the file
+    * @return false if the lock could not be granted immediately
+    */
+   public boolean tryXLockFile(String filename) {
+      return concurMgr.tryXLockFile(filename);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file,
+    * to be filled by a bulk load, and returns a reference to it.
+    * The transaction first obtains an XLock on the file,
+    * and writes a single log record for the block.
+    * The values that the transaction then writes to
+    * the block's records are neither locked nor logged;
+    * instead, the block is flushed when the transaction commits,
+    * and rolling back the transaction empties the block.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @return a reference to the newly-created disk block
+    */
+   public Block appendForLoad(String filename, PageFormatter fmtr) {
+      concurMgr.xLockFile(filename);
+      Block blk = myBuffers.pinNew(filename, fmtr);
+      Buffer buff = myBuffers.getBuffer(blk);
+      concurMgr.saveBlockVersion(buff);
+      long lsn = recoveryMgr.loadBlock(buff);
+      buff.setModified(txnum, lsn);
+      loadedBlocks.add(blk);
+      unpin(blk);
+      return blk;
+   }
+   
+   /**
+    * Removes the blocks of the specified file that follow
+    * the specified number of blocks.
+    * The transaction must hold an XLock on the file,
+    * and the removed blocks must hold no records.
+    * The truncation is logged once it is done, and is not
+    * undone by a rollback; recovery then ignores the earlier
+    * modifications to the removed blocks, which could otherwise
+    * be redone onto a block that reuses the number of one.
+    * The file is not truncated if another transaction
+    * has pinned one of the removed blocks.
+    * @param filename the name of the file
+    * @param nblocks the number of blocks that remain
+    * @return true if the file was truncated
+    */
+   public boolean truncate(String filename, int nblocks) {
+      concurMgr.xLockFile(filename);
+      if (!SimpleDB.bufferMgr().truncate(filename, nblocks))
+         return false;
+      RecoveryMgr.truncated(filename, nblocks);
+      return true;
+   }
+   
+   /**
+    * Returns the LSN of the transaction's first log record,
+    * or -1 if it has not written any.
+    */
+   long firstLSN() {
+      return recoveryMgr.firstLSN();
+   }
+   
+   /**
+    * Returns the number of locks held by the transaction.
+    */
+   int lockCount() {
+      return concurMgr.lockCount();
+   }
+   
+   /**
+    * Returns the number of buffers pinned by the transaction.
+    */
+   int pinnedCount() {
+      return myBuffers.size();
+   }
+   
+   private int readInt(Block blk, int offset) {
+      Object val = deferredValue(blk, offset);
+      if (val != null)
+         return (Integer) val;
+      Buffer buff = myBuffers.getBuffer(blk);
+      if (concurMgr.isSnapshot())
+         return concurMgr.getSnapshotInt(buff, offset);
+      return buff.getInt(offset);
+   }
+   
+   private String readString(Block blk, int offset) {
+      Object val = deferredValue(blk, offset);
+      if (val != null)
+         return (String) val;
+      Buffer buff = myBuffers.getBuffer(blk);
+      if (concurMgr.isSnapshot())
+         return concurMgr.getSnapshotString(buff, offset);
+      return buff.getString(offset);
+   }
+   
+   private void writeInt(Block blk, int id, int offset, int val) {
+      if (concurMgr.defersWrites(blk))
+         deferWrite(blk, id, offset, val);
+      else
+         applyInt(myBuffers.getBuffer(blk), offset, val);
+   }
+   
+   private void writeString(Block blk, int id, int offset, String val) {
+      if (concurMgr.defersWrites(blk))
+         deferWrite(blk, id, offset, val);
+      else
+         applyString(myBuffers.getBuffer(blk), offset, val);
+   }
+   
+   /**
+    * Saves the current value for snapshot readers,
+    * logs the modification, and modifies the buffer.
+    */
+   private void applyInt(Buffer buff, int offset, int val) {
+      concurMgr.saveVersion(buff, offset, buff.getInt(offset));
+      long lsn = recoveryMgr.setInt(buff, offset, val);
+      buff.setInt(offset, val, txnum, lsn);
+   }
+   
+   private void applyString(Buffer buff, int offset, String val) {
+      concurMgr.saveVersion(buff, offset, buff.getString(offset));
+      long lsn = recoveryMgr.setString(buff, offset, val);
+      buff.setString(offset, val, txnum, lsn);
+   }
+   
+   private Object deferredValue(Block blk, int offset) {
+      Map<Integer,Object> writes = deferredWrites.get(blk);
+      return (writes == null) ? null : writes.get(offset);
+   }
+   
+   /**
+    * Defers a write to the specified block, noting the ID
+    * of the record written, unless it is -1.
+    */
+   private void deferWrite(Block blk, int id, int offset, Object val) {
+      Map<Integer,Object> writes = deferredWrites.get(blk);
+      if (writes == null) {
+         writes = new LinkedHashMap<Integer,Object>();
+         deferredWrites.put(blk, writes);
+         deferredRecords.put(blk, new HashSet<Integer>());
+      }
+      writes.put(offset, val);
+      if (id >= 0)
+         deferredRecords.get(blk).add(id);
+   }
+   
+   /**
+    * Performs the deferred writes of a validated
+    * optimistic transaction, logging each one.
+    * The transaction holds XLocks on the written blocks,
+    * which it obtained during validation.
+    * The cached rows of the written records are then dropped,
+    * and the zones of the written blocks discarded,
+    * since either may have been built from the
+    * values that the writes replaced.
+    */
+   private void installDeferredWrites() {
+      for (Map.Entry<Block,Map<Integer,Object>> e : deferredWrites.entrySet()) {
+         Block blk = e.getKey();
+         myBuffers.pin(blk);
+         Buffer buff = myBuffers.getBuffer(blk);
+         for (Map.Entry<Integer,Object> w : e.getValue().entrySet()) {
+            Object val = w.getValue();
+            if (val instanceof Integer)
+               applyInt(buff, w.getKey(), (Integer) val);
+            else
+               applyString(buff, w.getKey(), (String) val);
+         }
+         myBuffers.unpin(blk);
+         for (int id : deferredRecords.get(blk))
+            RowCache.invalidate(blk, id);
+         ZoneMap.discard(blk);
+      }
+      deferredWrites.clear();
+      deferredRecords.clear();
    }
 }
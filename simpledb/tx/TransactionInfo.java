@@ -0,0 +1,109 @@
+package simpledb.tx;
+
+import static simpledb.tx.concurrency.ConcurrencyMgr.*;
+
+/**
+ * Information about an active transaction,
+ * as kept in the active-transaction table
+ * of the {@link TransactionManager}.
+ * The counts of locks and pinned buffers are read
+ * without synchronizing with the transaction,
+ * and so are only approximate.
+ */
+public class TransactionInfo {
+   public static final int ACTIVE = 0, COMMITTING = 1, ROLLING_BACK = 2;
+   private static final String[] STATE_NAMES = {"active", "committing", "rolling back"};
+   
+   private Transaction tx;
+   private int txnum;
+   private int mode;
+   private long startTime = System.currentTimeMillis();
+   private volatile int state = ACTIVE;
+   
+   TransactionInfo(Transaction tx, int txnum, int mode) {
+      this.tx = tx;
+      this.txnum = txnum;
+      this.mode = mode;
+   }
+   
+   /**
+    * Returns the ID of the transaction.
+    * @return the transaction ID
+    */
+   public int txNumber() {
+      return txnum;
+   }
+   
+   /**
+    * Returns true if the transaction reads from a snapshot.
+    * @return true if this is a snapshot transaction
+    */
+   public boolean isSnapshot() {
+      return mode == SNAPSHOT;
+   }
+   
+   /**
+    * Returns true if the transaction is optimistic.
+    * @return true if this is an optimistic transaction
+    */
+   public boolean isOptimistic() {
+      return mode == OPTIMISTIC;
+   }
+   
+   /**
+    * Returns the time at which the transaction started,
+    * in milliseconds since the epoch.
+    * @return the start time of the transaction
+    */
+   public long startTime() {
+      return startTime;
+   }
+   
+   /**
+    * Returns the LSN of the transaction's first log record,
+    * or a smaller LSN if the record is being written.
+    * A negative value means that the transaction
+    * has not written to the log.
+    * @return the first LSN of the transaction
+    */
+   public long firstLSN() {
+      return tx.firstLSN();
+   }
+   
+   /**
+    * Returns the state of the transaction:
+    * ACTIVE, COMMITTING, or ROLLING_BACK.
+    * @return the state of the transaction
+    */
+   public int state() {
+      return state;
+   }
+   
+   /**
+    * Returns the number of locks that the transaction holds.
+    * @return the number of locks held
+    */
+   public int lockCount() {
+      return tx.lockCount();
+   }
+   
+   /**
+    * Returns the number of buffers that the transaction has pinned.
+    * @return the number of pinned buffers
+    */
+   public int pinnedCount() {
+      return tx.pinnedCount();
+   }
+   
+   public String toString() {
+      long age = System.currentTimeMillis() - startTime;
+      String kind = isSnapshot() ? " snapshot" : isOptimistic() ? " optimistic" : "";
+      return "[tx " + txnum + kind + ", " + STATE_NAMES[state]
+            + " for " + age + "ms, first LSN " + firstLSN()
+            + ", " + lockCount() + " locks, " + pinnedCount() + " pins]";
+   }
+   
+   void setState(int state) {
+      this.state = state;
+   }
+}
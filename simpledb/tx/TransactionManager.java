@@ -0,0 +1,81 @@
+package simpledb.tx;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The transaction manager, which assigns transaction IDs
+ * and keeps the table of active transactions.
+ * IDs are allocated without locking, and the table
+ * is a concurrent map, so that starting and ending
+ * transactions does not serialize them.
+ * The table is used to write nonquiescent checkpoints,
+ * and to report on the transactions that are running.
+ */
+public class TransactionManager {
+   private AtomicInteger nextTxNum = new AtomicInteger(0);
+   private Map<Integer,TransactionInfo> activeTxs =
+         new ConcurrentHashMap<Integer,TransactionInfo>();
+   
+   /**
+    * Allocates the next transaction ID.
+    * @return a new transaction ID
+    */
+   int nextTxNumber() {
+      return nextTxNum.incrementAndGet();
+   }
+   
+   /**
+    * Adds the specified transaction to the active-transaction table.
+    * A transaction is added before it writes any log record,
+    * so that a checkpoint that does not see it
+    * was begun before any of its records were written.
+    * @param tx the new transaction
+    * @param txnum the ID of the transaction
+    * @param mode the concurrency mode of the transaction
+    * @return the information about the transaction
+    */
+   TransactionInfo begin(Transaction tx, int txnum, int mode) {
+      TransactionInfo info = new TransactionInfo(tx, txnum, mode);
+      activeTxs.put(txnum, info);
+      return info;
+   }
+   
+   /**
+    * Removes the specified transaction from the
+    * active-transaction table.
+    * @param txnum the ID of the transaction
+    */
+   void end(int txnum) {
+      activeTxs.remove(txnum);
+   }
+   
+   /**
+    * Returns information about the currently active transactions.
+    * Transactions that start or end during the call
+    * may or may not be included.
+    * @return the active transactions
+    */
+   public Collection<TransactionInfo> activeTransactions() {
+      return new ArrayList<TransactionInfo>(activeTxs.values());
+   }
+   
+   /**
+    * Returns information about the specified transaction,
+    * or null if the transaction is not active.
+    * @param txnum the ID of the transaction
+    * @return the information about the transaction
+    */
+   public TransactionInfo transaction(int txnum) {
+      return activeTxs.get(txnum);
+   }
+   
+   /**
+    * Returns the number of active transactions.
+    * @return the number of active transactions
+    */
+   public int activeCount() {
+      return activeTxs.size();
+   }
+}
@@ -0,0 +1,44 @@
+package simpledb.tx.concurrency;
+
+import simpledb.file.Block;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The version stamps of blocks, used to validate
+ * optimistic transactions.
+ * A block's stamp is advanced whenever a transaction
+ * that modified the block commits or rolls back,
+ * so an optimistic transaction detects a conflicting write
+ * by seeing that the stamp of a block it read has changed.
+ * Blocks are hashed into a fixed array of stamps,
+ * which is updated without locking and does not grow
+ * with the database.
+ * Two blocks may share a stamp, in which case a write
+ * to one of them causes a needless abort of a
+ * transaction that read the other.
+ */
+class BlockVersions {
+   private static final int SLOTS = 4096;
+   private AtomicIntegerArray stamps = new AtomicIntegerArray(SLOTS);
+   
+   /**
+    * Returns the current version stamp of the specified block.
+    * @param blk a reference to the block
+    * @return the block's version stamp
+    */
+   int version(Block blk) {
+      return stamps.get(slot(blk));
+   }
+   
+   /**
+    * Advances the version stamp of the specified block.
+    * @param blk a reference to the block
+    */
+   void advance(Block blk) {
+      stamps.incrementAndGet(slot(blk));
+   }
+   
+   private int slot(Block blk) {
+      return (blk.hashCode() & Integer.MAX_VALUE) % SLOTS;
+   }
+}
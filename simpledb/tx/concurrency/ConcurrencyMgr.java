@@ -1,6 +1,8 @@
 package simpledb.tx.concurrency;
 
+import static simpledb.tx.concurrency.LockMode.*;
 import simpledb.file.Block;
+import simpledb.buffer.Buffer;
 import java.util.*;
 
 /**
@@ -9,43 +11,538 @@ import java.util.*;
  * The concurrency manager keeps track of which locks the 
  * transaction currently has, and interacts with the
  * global lock table as needed. 
+ * Locking is multi-granularity: before locking a block,
+ * the transaction takes an intention lock on its file,
+ * and before locking a record, it takes intention locks
+ * on the record's file and block.
+ * Records of a block can thus be modified concurrently
+ * by different transactions; the buffer's synchronized
+ * methods keep the page physically consistent.
+ * When a transaction holds more than {@link #ESCALATION_THRESHOLD}
+ * locks on the blocks and records of a file, they are replaced
+ * by a single lock on the file.
+ * A snapshot transaction takes no locks; instead, it reads
+ * the values that were current when it started,
+ * from the global version store.
+ * Snapshot transactions are read-only, except for
+ * temporary files, which are private to their transaction.
+ * An optimistic transaction also takes no locks while it runs;
+ * instead, it records the version stamp of each block that it reads,
+ * and its transaction defers its writes until commit.
+ * At commit, the blocks are locked briefly, and the transaction
+ * is validated by checking that the stamps have not changed.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
+   /**
+    * The concurrency control modes of a transaction.
+    */
+   public static final int LOCKING = 0, SNAPSHOT = 1, OPTIMISTIC = 2;
+   
+   /**
+    * The policies by which the lock table handles deadlocks:
+    * detecting them, or preventing them by the wait-die
+    * or wound-wait scheme.
+    */
+   public static final int DETECT = 0, WAIT_DIE = 1, WOUND_WAIT = 2;
+   
+   /**
+    * The priorities of a transaction.
+    * A waiting lock request of a higher-priority transaction
+    * is granted before those of lower-priority ones,
+    * and under wait-die and wound-wait it counts as older.
+    */
+   public static final int LOW_PRIORITY = 0, NORMAL_PRIORITY = 1, HIGH_PRIORITY = 2;
+   
+   /**
+    * The number of block and record locks that a transaction may hold
+    * on a file before they are escalated to a lock on the file.
+    */
+   public static final int ESCALATION_THRESHOLD = 100;
    
    /**
     * The global lock table.  This variable is static because all transactions
     * share the same table.
     */
    private static LockTable locktbl = new LockTable();
-   private Map<Block,String> locks  = new HashMap<Block,String>();
+   
+   /**
+    * The global version store, used by snapshot transactions.
+    */
+   private static VersionStore versions = new VersionStore();
+   
+   /**
+    * The global version stamps of blocks, used by optimistic transactions.
+    */
+   private static BlockVersions stamps = new BlockVersions();
+   private Map<Object,Integer> locks = new HashMap<Object,Integer>();
+   private Map<String,Integer> lockCounts = new HashMap<String,Integer>();
+   private Set<Block> modified = new HashSet<Block>();
+   private Map<Block,Integer> readStamps = new HashMap<Block,Integer>();
+   private Set<Block> writeBlocks = new LinkedHashSet<Block>();
+   private int txnum;
+   private int mode;
+   private int priority = NORMAL_PRIORITY;
+   private int snapcsn = -1; // negative means not a snapshot transaction
+   
+   /**
+    * Creates a concurrency manager for the specified transaction.
+    * @param txnum the ID of the transaction
+    * @param mode LOCKING, SNAPSHOT, or OPTIMISTIC
+    */
+   public ConcurrencyMgr(int txnum, int mode) {
+      this.txnum = txnum;
+      this.mode = mode;
+      if (mode == SNAPSHOT)
+         snapcsn = versions.beginSnapshot();
+   }
+   
+   /**
+    * Sets the policy by which the lock table handles deadlocks.
+    * The policy should be set when the system starts,
+    * before any transaction requests a lock.
+    * @param policy DETECT, WAIT_DIE, or WOUND_WAIT
+    */
+   public static void setLockPolicy(int policy) {
+      locktbl.setPolicy(policy);
+   }
+   
+   /**
+    * Sets the priority of the transaction's subsequent lock requests.
+    * @param priority LOW_PRIORITY, NORMAL_PRIORITY, or HIGH_PRIORITY
+    */
+   public void setPriority(int priority) {
+      this.priority = priority;
+   }
+   
+   /**
+    * Returns true if the transaction reads from a snapshot.
+    * @return true if this is a snapshot transaction
+    */
+   public boolean isSnapshot() {
+      return mode == SNAPSHOT;
+   }
+   
+   /**
+    * Returns the CSN of the transaction's snapshot,
+    * or -1 if it is not a snapshot transaction.
+    * @return the CSN of the snapshot, or -1
+    */
+   public int snapshotCSN() {
+      return snapcsn;
+   }
+   
+   /**
+    * Returns the CSN of the most recently committed
+    * transaction that modified the database.
+    * @return the current CSN
+    */
+   public static int currentCSN() {
+      return versions.currentCSN();
+   }
+   
+   /**
+    * Returns true if the transaction is optimistic.
+    * @return true if this is an optimistic transaction
+    */
+   public boolean isOptimistic() {
+      return mode == OPTIMISTIC;
+   }
+   
+   /**
+    * Returns true if the transaction's writes to the
+    * specified block must be deferred until commit.
+    * This is the case for optimistic transactions,
+    * except for temporary files.
+    * @param blk a reference to the disk block
+    * @return true if writes to the block are deferred
+    */
+   public boolean defersWrites(Block blk) {
+      return isOptimistic() && !isTempBlock(blk);
+   }
    
    /**
     * Obtains an SLock on the block, if necessary.
-    * The method will ask the lock table for an SLock
-    * if the transaction currently has no locks on that block.
+    * The method does nothing if the transaction already
+    * has a lock on the block, or a lock on its file that covers reads.
+    * Otherwise it gets an IS lock on the file (if necessary),
+    * and then an SLock on the block.
+    * A snapshot transaction does not lock,
+    * and an optimistic transaction records the block's version stamp.
     * @param blk a reference to the disk block
     */
    public void sLock(Block blk) {
-      if (locks.get(blk) == null) {
-         locktbl.sLock(blk);
-         locks.put(blk, "S");
+      if (isSnapshot())
+         return;
+      if (isOptimistic()) {
+         noteRead(blk);
+         return;
       }
+      String filename = blk.fileName();
+      if (holds(filename, S) || holds(blk, S))
+         return;
+      boolean held = locks.containsKey(blk);
+      lock(filename, IS);
+      lock(blk, S);
+      if (!held)
+         addLock(filename);
+   }
+   
+   /**
+    * Obtains an SLock on the block, as in {@link #sLock(Block)},
+    * unless another transaction holds a conflicting lock
+    * on the block or its file.
+    * In that case the method returns false instead of waiting.
+    * Transactions that do not lock blocks always succeed.
+    * @param blk a reference to the disk block
+    * @return false if the lock could not be granted immediately
+    */
+   public boolean trySLock(Block blk) {
+      if (isSnapshot() || isOptimistic()) {
+         sLock(blk);
+         return true;
+      }
+      String filename = blk.fileName();
+      if (holds(filename, S) || holds(blk, S))
+         return true;
+      boolean held = locks.containsKey(blk);
+      if (!holds(filename, IS)) {
+         if (!locktbl.tryLock(filename, txnum, IS, priority))
+            return false;
+         noteLock(filename, IS);
+      }
+      if (!locktbl.tryLock(blk, txnum, S, priority))
+         return false;
+      noteLock(blk, S);
+      if (!held)
+         addLock(filename);
+      return true;
    }
    
    /**
     * Obtains an XLock on the block, if necessary.
-    * If the transaction does not have an XLock on that block,
-    * then the method first gets an SLock on that block
-    * (if necessary), and then upgrades it to an XLock.
+    * The method does nothing if the transaction already has
+    * an XLock on the block, or an XLock on its file.
+    * Otherwise it gets an IX lock on the file (if necessary),
+    * and then an XLock on the block, upgrading
+    * any SLock that it holds.
+    * A snapshot transaction may only modify temporary files,
+    * which it does not lock.
+    * An optimistic transaction notes the block, to be
+    * locked at commit.
     * @param blk a refrence to the disk block
     */
    public void xLock(Block blk) {
-      if (!hasXLock(blk)) {
-         sLock(blk);
-         locktbl.xLock(blk);
-         locks.put(blk, "X");
+      if (isSnapshot()) {
+         if (!isTempBlock(blk))
+            throw new RuntimeException("snapshot transaction " + txnum + " cannot modify " + blk);
+         return;
+      }
+      if (noteWrite(blk))
+         return;
+      String filename = blk.fileName();
+      if (holds(filename, X) || holds(blk, X))
+         return;
+      boolean held = locks.containsKey(blk);
+      lock(filename, IX);
+      lock(blk, X);
+      if (!held)
+         addLock(filename);
+   }
+   
+   /**
+    * Obtains an XLock on the specified file, if necessary,
+    * which covers every block and record of the file.
+    * Snapshot and optimistic transactions do not lock files.
+    * @param filename the name of the file
+    */
+   public void xLockFile(String filename) {
+      if (isSnapshot() || isOptimistic())
+         throw new RuntimeException("transaction " + txnum + " cannot lock file " + filename);
+      lock(filename, X);
+   }
+   
+   /**
+    * Obtains an XLock on the specified file, as in {@link #xLockFile(String)},
+    * unless another transaction holds a conflicting lock on the file
+    * or on one of its blocks or records.
+    * In that case the method returns false instead of waiting.
+    * @param filename the name of the file
+    * @return false if the lock could not be granted immediately
+    */
+   public boolean tryXLockFile(String filename) {
+      if (isSnapshot() || isOptimistic())
+         throw new RuntimeException("transaction " + txnum + " cannot lock file " + filename);
+      if (holds(filename, X))
+         return true;
+      if (!locktbl.tryLock(filename, txnum, X, priority))
+         return false;
+      noteLock(filename, X);
+      return true;
+   }
+   
+   /**
+    * Obtains an SLock on the specified record, if necessary.
+    * The method does nothing if the transaction already
+    * has a lock on the record, or a lock on its block or file
+    * that covers reads.
+    * Otherwise it gets IS locks on the file and the block
+    * (if necessary), and then an SLock on the record.
+    * A snapshot transaction does not lock,
+    * and an optimistic transaction records the block's version stamp.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    */
+   public void sLockRecord(Block blk, int id) {
+      if (isSnapshot())
+         return;
+      if (isOptimistic()) {
+         noteRead(blk);
+         return;
+      }
+      String filename = blk.fileName();
+      RecordKey rec = new RecordKey(blk, id);
+      if (holds(filename, S) || holds(blk, S) || holds(rec, S))
+         return;
+      boolean held = locks.containsKey(rec);
+      lock(filename, IS);
+      lock(blk, IS);
+      lock(rec, S);
+      if (!held)
+         addLock(filename);
+   }
+   
+   /**
+    * Obtains an XLock on the specified record, if necessary.
+    * The method does nothing if the transaction already has
+    * an XLock on the record, its block, or its file.
+    * Otherwise it gets IX locks on the file and the block
+    * (if necessary), and then an XLock on the record,
+    * upgrading any SLock that it holds.
+    * A snapshot transaction may only modify temporary files,
+    * which it does not lock.
+    * An optimistic transaction notes the block, to be
+    * locked at commit.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    */
+   public void xLockRecord(Block blk, int id) {
+      if (isSnapshot()) {
+         if (!isTempBlock(blk))
+            throw new RuntimeException("snapshot transaction " + txnum + " cannot modify " + blk);
+         return;
       }
+      if (noteWrite(blk))
+         return;
+      String filename = blk.fileName();
+      RecordKey rec = new RecordKey(blk, id);
+      if (holds(filename, X) || holds(blk, X) || holds(rec, X))
+         return;
+      boolean held = locks.containsKey(rec);
+      lock(filename, IX);
+      lock(blk, IX);
+      lock(rec, X);
+      if (!held)
+         addLock(filename);
+   }
+   
+   /**
+    * Returns true if the transaction may have modified the
+    * specified record, that is, if it holds an XLock that covers
+    * the record, or, for an optimistic transaction,
+    * if it has written to the record's block.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @return true if the record may have been modified
+    */
+   public boolean mayHaveModified(Block blk, int id) {
+      if (isSnapshot())
+         return false;
+      if (isOptimistic())
+         return writeBlocks.contains(blk);
+      return holds(blk.fileName(), X) || holds(blk, X)
+            || holds(new RecordKey(blk, id), X);
+   }
+   
+   /**
+    * Returns true if the transaction may have modified
+    * any record of the specified block, that is, if it holds
+    * an IX lock that covers the block, or, for an optimistic
+    * transaction, if it has written to the block.
+    * @param blk a reference to the disk block
+    * @return true if the block may have been modified
+    */
+   public boolean mayHaveModified(Block blk) {
+      if (isSnapshot())
+         return false;
+      if (isOptimistic())
+         return writeBlocks.contains(blk);
+      return holds(blk.fileName(), X) || holds(blk, IX);
+   }
+   
+   /**
+    * Obtains an XLock on the record, as in {@link #xLockRecord(Block, int)},
+    * unless another transaction holds a conflicting lock on it.
+    * In that case the method returns false instead of waiting.
+    * Transactions that do not lock records always succeed.
+    * @param blk a reference to the block containing the record
+    * @param id the ID of the record within the block
+    * @return false if the lock could not be granted immediately
+    */
+   public boolean tryXLockRecord(Block blk, int id) {
+      if (isSnapshot() || isOptimistic()) {
+         xLockRecord(blk, id);
+         return true;
+      }
+      String filename = blk.fileName();
+      RecordKey rec = new RecordKey(blk, id);
+      if (holds(filename, X) || holds(blk, X) || holds(rec, X))
+         return true;
+      boolean held = locks.containsKey(rec);
+      lock(filename, IX);
+      lock(blk, IX);
+      if (!locktbl.tryLock(rec, txnum, X, priority))
+         return false;
+      noteLock(rec, X);
+      if (!held)
+         addLock(filename);
+      return true;
+   }
+   
+   /**
+    * Saves the value at the specified offset of the buffer's block
+    * in the version store, if the transaction
+    * has not modified that value before.
+    * This method must be called before each modification,
+    * while holding an XLock that covers the value.
+    * Temporary files are not versioned.
+    * @param buff the buffer about to be modified
+    * @param offset the byte offset of the value
+    * @param oldval the current value, an Integer or a String
+    */
+   public void saveVersion(Buffer buff, int offset, Object oldval) {
+      if (isSnapshot() || isTempBlock(buff.block()))
+         return;
+      versions.save(txnum, buff.block(), offset, oldval);
+   }
+   
+   /**
+    * Saves the empty version of the buffer's block,
+    * which the transaction is about to fill by a bulk load.
+    * The block's stamp is advanced when the transaction ends,
+    * as for any modified block.
+    * Temporary files are not versioned.
+    * @param buff the buffer holding the new block
+    */
+   public void saveBlockVersion(Buffer buff) {
+      if (isSnapshot() || isTempBlock(buff.block()))
+         return;
+      noteWrite(buff.block());
+      versions.saveBlock(txnum, buff.block());
+   }
+   
+   /**
+    * Returns the integer at the specified offset of the
+    * buffer's block, as it was when the snapshot was taken.
+    * @param buff the buffer holding the block
+    * @param offset the byte offset within the block
+    * @return the integer at that offset in the snapshot
+    */
+   public int getSnapshotInt(Buffer buff, int offset) {
+      return versions.getInt(buff, offset, snapcsn);
+   }
+   
+   /**
+    * Returns the string at the specified offset of the
+    * buffer's block, as it was when the snapshot was taken.
+    * @param buff the buffer holding the block
+    * @param offset the byte offset within the block
+    * @return the string at that offset in the snapshot
+    */
+   public String getSnapshotString(Buffer buff, int offset) {
+      return versions.getString(buff, offset, snapcsn);
+   }
+   
+   /**
+    * Validates an optimistic transaction before it commits.
+    * The method locks the blocks that the transaction will write
+    * (with XLocks) and the other blocks that it read (with SLocks),
+    * waiting for any conflicting transactions to finish.
+    * It then checks that the version stamps of the blocks read
+    * are unchanged, which means that no other transaction
+    * has modified them since.
+    * If validation succeeds, the transaction may install its writes,
+    * since the locks are held until it commits.
+    * @throws ValidationException if a block read by the transaction was modified
+    */
+   public void validate() {
+      for (Block blk : writeBlocks) {
+         lock(blk.fileName(), IX);
+         lock(blk, X);
+         modified.add(blk);
+      }
+      for (Block blk : readStamps.keySet()) {
+         if (!writeBlocks.contains(blk)) {
+            lock(blk.fileName(), IS);
+            lock(blk, S);
+         }
+      }
+      for (Map.Entry<Block,Integer> e : readStamps.entrySet())
+         if (stamps.version(e.getKey()) != e.getValue())
+            throw new ValidationException();
+   }
+   
+   /**
+    * Commits the transaction's versions, or ends its snapshot,
+    * and then releases its locks.
+    * The versions are committed before the locks are released,
+    * so that the next writer of a block saves the committed version.
+    * The version stamps of the modified blocks are also
+    * advanced before the locks are released.
+    */
+   public void commit() {
+      if (isSnapshot())
+         versions.endSnapshot(snapcsn);
+      else
+         versions.commit(txnum);
+      advanceStamps();
+      release();
+   }
+   
+   /**
+    * Discards the transaction's versions, or ends its snapshot,
+    * and then releases its locks.
+    * This method must be called after the transaction's
+    * modifications have been undone.
+    * The stamps of the modified blocks are advanced,
+    * since an optimistic transaction may have read
+    * the values that were undone.
+    */
+   public void rollback() {
+      if (isSnapshot())
+         versions.endSnapshot(snapcsn);
+      else
+         versions.rollback(txnum);
+      advanceStamps();
+      release();
+   }
+   
+   /**
+    * Returns the number of deadlocks that the lock table
+    * has detected since the system started.
+    * Each deadlock was resolved by aborting one transaction.
+    * @return the number of deadlocks
+    */
+   public static int deadlockCount() {
+      return locktbl.deadlockCount();
+   }
+   
+   /**
+    * Returns the number of locks that the transaction holds.
+    * @return the number of locks
+    */
+   public int lockCount() {
+      return locks.size();
    }
    
    /**
@@ -53,13 +550,134 @@ public class ConcurrencyMgr {
     * unlock each one.
     */
    public void release() {
-      for (Block blk : locks.keySet())
-         locktbl.unlock(blk);
+      for (Object key : locks.keySet())
+         locktbl.unlock(key, txnum);
       locks.clear();
+      lockCounts.clear();
+      locktbl.endTransaction(txnum);
+   }
+   
+   /**
+    * Records the version stamp of a block read by
+    * an optimistic transaction, the first time it is read.
+    * The stamp is read before the block's values are,
+    * so that a later modification changes it.
+    */
+   private void noteRead(Block blk) {
+      if (!readStamps.containsKey(blk))
+         readStamps.put(blk, stamps.version(blk));
+   }
+   
+   /**
+    * Notes that the transaction is about to modify the block,
+    * so that its stamp is advanced when the transaction ends.
+    * Returns true if the transaction is optimistic,
+    * in which case the block is locked only at commit.
+    */
+   private boolean noteWrite(Block blk) {
+      if (isTempBlock(blk))
+         return isOptimistic();
+      if (isOptimistic()) {
+         writeBlocks.add(blk);
+         return true;
+      }
+      modified.add(blk);
+      return false;
+   }
+   
+   private void advanceStamps() {
+      for (Block blk : modified)
+         stamps.advance(blk);
+      modified.clear();
+   }
+   
+   /**
+    * Counts a new block or record lock on the specified file,
+    * and escalates the file's locks if there are too many.
+    */
+   private void addLock(String filename) {
+      Integer count = lockCounts.get(filename);
+      int newcount = (count == null) ? 1 : count+1;
+      lockCounts.put(filename, newcount);
+      if (newcount > ESCALATION_THRESHOLD)
+         escalate(filename);
+   }
+   
+   /**
+    * Replaces the transaction's block and record locks
+    * on the specified file by a lock on the file.
+    * If the transaction holds an XLock on any block or record
+    * of the file, then it gets an XLock on the file.
+    * Otherwise it gets an SLock on the file, or a SIX lock if
+    * it holds an IX lock on the file.
+    * The record locks that are covered by the file lock
+    * are then released, followed by the covered block locks
+    * that no longer have locked records beneath them.
+    */
+   private void escalate(String filename) {
+      List<RecordKey> records = new ArrayList<RecordKey>();
+      List<Block> blocks = new ArrayList<Block>();
+      boolean anyXLock = false;
+      for (Map.Entry<Object,Integer> e : locks.entrySet()) {
+         Object key = e.getKey();
+         Block blk = (key instanceof RecordKey) ? ((RecordKey) key).block()
+                   : (key instanceof Block) ? (Block) key : null;
+         if (blk != null && blk.fileName().equals(filename)) {
+            if (key instanceof RecordKey)
+               records.add((RecordKey) key);
+            else
+               blocks.add(blk);
+            anyXLock = anyXLock || e.getValue() == X;
+         }
+      }
+      int mode = anyXLock ? X : S;
+      lock(filename, mode);
+      int filemode = locks.get(filename);
+      int remaining = 0;
+      Set<Block> lockedBlocks = new HashSet<Block>();
+      for (RecordKey rec : records) {
+         if (covers(filemode, locks.get(rec))) {
+            locktbl.unlock(rec, txnum);
+            locks.remove(rec);
+         }
+         else {
+            lockedBlocks.add(rec.block());
+            remaining++;
+         }
+      }
+      for (Block blk : blocks) {
+         if (covers(filemode, locks.get(blk)) && !lockedBlocks.contains(blk)) {
+            locktbl.unlock(blk, txnum);
+            locks.remove(blk);
+         }
+         else if (!lockedBlocks.contains(blk))
+            remaining++;
+      }
+      lockCounts.put(filename, remaining);
+   }
+   
+   /**
+    * Obtains a lock of the specified mode from the lock table,
+    * and records the resulting mode.
+    */
+   private void lock(Object key, int mode) {
+      if (holds(key, mode))
+         return;
+      locktbl.lock(key, txnum, mode, priority);
+      noteLock(key, mode);
+   }
+   
+   private void noteLock(Object key, int mode) {
+      Integer held = locks.get(key);
+      locks.put(key, (held == null) ? mode : supremum(held, mode));
+   }
+   
+   private boolean holds(Object key, int mode) {
+      Integer held = locks.get(key);
+      return held != null && covers(held, mode);
    }
    
-   private boolean hasXLock(Block blk) {
-      String locktype = locks.get(blk);
-      return locktype != null && locktype.equals("X");
+   private boolean isTempBlock(Block blk) {
+      return blk.fileName().startsWith("temp");
    }
 }
@@ -0,0 +1,65 @@
+package simpledb.tx.concurrency;
+
+/**
+ * The lock modes of multi-granularity locking.
+ * A transaction locks a file before locking any of its blocks,
+ * and a block before locking any of its records:
+ * with IS before an SLock, and with IX before an XLock.
+ * An S or X lock on a file or block covers everything inside it,
+ * and a SIX lock on a file combines S with IX,
+ * allowing a transaction to read the whole file while
+ * locking the blocks that it modifies.
+ */
+class LockMode {
+   static final int IS  = 0;
+   static final int IX  = 1;
+   static final int S   = 2;
+   static final int SIX = 3;
+   static final int X   = 4;
+   
+   private static final String[] NAMES = {"IS", "IX", "S", "SIX", "X"};
+   
+   private static final boolean[][] COMPATIBLE = {
+      //  IS     IX     S      SIX    X
+      {true,  true,  true,  true,  false},  // IS
+      {true,  true,  false, false, false},  // IX
+      {true,  false, true,  false, false},  // S
+      {true,  false, false, false, false},  // SIX
+      {false, false, false, false, false}}; // X
+   
+   private static final int[][] SUPREMUM = {
+      //  IS   IX   S    SIX  X
+      {IS,  IX,  S,   SIX, X},  // IS
+      {IX,  IX,  SIX, SIX, X},  // IX
+      {S,   SIX, S,   SIX, X},  // S
+      {SIX, SIX, SIX, SIX, X},  // SIX
+      {X,   X,   X,   X,   X}}; // X
+   
+   /**
+    * Returns true if two transactions may hold
+    * locks of the specified modes at the same time.
+    */
+   static boolean compatible(int m1, int m2) {
+      return COMPATIBLE[m1][m2];
+   }
+   
+   /**
+    * Returns the weakest mode that is at least
+    * as strong as both of the specified modes.
+    */
+   static int supremum(int m1, int m2) {
+      return SUPREMUM[m1][m2];
+   }
+   
+   /**
+    * Returns true if a lock of the held mode
+    * grants everything that the requested mode does.
+    */
+   static boolean covers(int held, int requested) {
+      return SUPREMUM[held][requested] == held;
+   }
+   
+   static String name(int mode) {
+      return NAMES[mode];
+   }
+}
@@ -0,0 +1,206 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+
+/**
+ * The requests for a single lock, which is on a block, a record, or a file.
+ * The queue holds the granted requests, keyed by transaction,
+ * and a list of waiting requests, ordered by the
+ * {@link LockRequest#precedes(LockRequest) precedence}
+ * of their transactions: higher-priority transactions first,
+ * and older transactions before younger ones,
+ * so that a long-running transaction is not starved
+ * by a stream of short ones.
+ * A new request is granted immediately only if it is
+ * compatible with the granted requests and no waiting
+ * request precedes it, so that a stream of shared locks
+ * cannot starve a waiting exclusive one.
+ * A conversion, which strengthens a lock that the transaction
+ * already holds, is granted as soon as it is compatible with
+ * the other granted locks, and otherwise
+ * waits ahead of the other waiting requests.
+ * The methods of this class are called by the
+ * {@link LockTable} while holding the latch of the queue's stripe.
+ */
+class LockQueue {
+   private Map<Integer,LockRequest> granted = new HashMap<Integer,LockRequest>();
+   private LinkedList<LockRequest> waiting = new LinkedList<LockRequest>();
+   private int[] grantedCounts = new int[LockMode.X + 1];
+   
+   /**
+    * Adds a request by the specified transaction.
+    * If the transaction already holds a lock that
+    * covers the requested mode, that lock is returned.
+    * Otherwise the new request is granted if possible,
+    * and placed on the wait list if not.
+    * @param key the block or file name being locked
+    * @param txnum the ID of the requesting transaction
+    * @param mode the requested lock mode
+    * @param priority the priority of the requesting transaction
+    * @return the request, which may or may not be granted
+    */
+   LockRequest request(Object key, int txnum, int mode, int priority) {
+      LockRequest held = granted.get(txnum);
+      if (held != null) {
+         if (LockMode.covers(held.mode(), mode))
+            return held;
+         int newmode = LockMode.supremum(held.mode(), mode);
+         LockRequest req = new LockRequest(key, txnum, newmode, priority, true);
+         if (canGrant(req))
+            grant(req);
+         else
+            waiting.add(conversionCount(), req);
+         return req;
+      }
+      LockRequest req = new LockRequest(key, txnum, mode, priority, false);
+      int pos = position(req);
+      if (pos == 0 && canGrant(req))
+         grant(req);
+      else
+         waiting.add(pos, req);
+      return req;
+   }
+   
+   /**
+    * Releases the lock held by the specified transaction,
+    * and grants the waiting requests that have become grantable.
+    * @param txnum the ID of the transaction
+    * @return the requests that were granted
+    */
+   List<LockRequest> release(int txnum) {
+      LockRequest held = granted.remove(txnum);
+      if (held != null)
+         grantedCounts[held.mode()]--;
+      return grantWaiting();
+   }
+   
+   /**
+    * Removes a waiting request that has been abandoned,
+    * and grants the waiting requests that it was blocking.
+    * @param req the abandoned request
+    * @return the requests that were granted
+    */
+   List<LockRequest> cancel(LockRequest req) {
+      waiting.remove(req);
+      return grantWaiting();
+   }
+   
+   /**
+    * Returns the waiting requests, in order.
+    * @return the waiting requests
+    */
+   List<LockRequest> waitingRequests() {
+      return waiting;
+   }
+   
+   /**
+    * Returns the transactions that the specified waiting
+    * request waits for.
+    * @param req a waiting request
+    * @return the IDs of the transactions it waits for
+    */
+   Set<Integer> blockers(LockRequest req) {
+      Set<Integer> result = new HashSet<Integer>();
+      for (LockRequest b : blockingRequests(req))
+         result.add(b.txNumber());
+      return result;
+   }
+   
+   /**
+    * Returns the requests that the specified waiting request waits for.
+    * These are the incompatible locks granted to other transactions,
+    * and the incompatible requests that wait ahead of it in the queue.
+    * @param req a waiting request
+    * @return the requests it waits for
+    */
+   List<LockRequest> blockingRequests(LockRequest req) {
+      List<LockRequest> result = new ArrayList<LockRequest>();
+      for (LockRequest g : granted.values())
+         if (g.txNumber() != req.txNumber() && !LockMode.compatible(g.mode(), req.mode()))
+            result.add(g);
+      for (LockRequest w : waiting) {
+         if (w == req)
+            break;
+         if (!LockMode.compatible(w.mode(), req.mode()))
+            result.add(w);
+      }
+      return result;
+   }
+   
+   /**
+    * Returns true if no transaction holds or waits for the lock.
+    * @return true if the queue is empty
+    */
+   boolean isEmpty() {
+      return granted.isEmpty() && waiting.isEmpty();
+   }
+   
+   /**
+    * Grants the waiting requests, in order, until one
+    * is found that is not compatible with the granted ones.
+    * @return the requests that were granted
+    */
+   private List<LockRequest> grantWaiting() {
+      List<LockRequest> result = new ArrayList<LockRequest>();
+      while (!waiting.isEmpty() && canGrant(waiting.getFirst())) {
+         LockRequest req = waiting.removeFirst();
+         grant(req);
+         result.add(req);
+      }
+      return result;
+   }
+   
+   /**
+    * Determines whether the request is compatible with
+    * the locks granted to the other transactions.
+    * The granted locks are counted by mode, so that
+    * the test does not depend on the number of holders.
+    */
+   private boolean canGrant(LockRequest req) {
+      int[] counts = grantedCounts.clone();
+      LockRequest held = granted.get(req.txNumber());
+      if (held != null)
+         counts[held.mode()]--;
+      for (int m=0; m<counts.length; m++)
+         if (counts[m] > 0 && !LockMode.compatible(m, req.mode()))
+            return false;
+      return true;
+   }
+   
+   private void grant(LockRequest req) {
+      if (req.isConversion()) {
+         LockRequest held = granted.get(req.txNumber());
+         grantedCounts[held.mode()]--;
+         held.upgrade(req.mode());
+      }
+      else
+         granted.put(req.txNumber(), req);
+      grantedCounts[req.mode()]++;
+      req.grant();
+   }
+   
+   /**
+    * Returns the position of a new request in the waiting list,
+    * which is after the conversions and after the requests
+    * that take precedence over it.
+    */
+   private int position(LockRequest req) {
+      int pos = 0;
+      for (LockRequest w : waiting) {
+         if (!w.isConversion() && req.precedes(w))
+            break;
+         pos++;
+      }
+      return pos;
+   }
+   
+   private int conversionCount() {
+      int count = 0;
+      for (LockRequest req : waiting) {
+         if (!req.isConversion())
+            break;
+         count++;
+      }
+      return count;
+   }
+}
@@ -0,0 +1,117 @@
+package simpledb.tx.concurrency;
+
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A request by a transaction for a lock on a block or a file.
+ * A request is either granted, or waiting in the
+ * queue of its lock.
+ * A waiting request has its own condition, so that
+ * its transaction can be woken up when, and only when,
+ * the request is granted, or when its transaction has been
+ * chosen as the victim of a deadlock.
+ * Each request has the priority of its transaction,
+ * which orders it among the waiting requests.
+ */
+class LockRequest {
+   private int txnum, mode, priority;
+   private boolean conversion, granted;
+   private volatile boolean aborted;
+   private Object key;
+   private Condition cond;
+   
+   /**
+    * Creates a request for a lock.
+    * @param key the requested block, or the name of the requested file
+    * @param txnum the ID of the requesting transaction
+    * @param mode the requested {@link LockMode lock mode}
+    * @param priority the priority of the requesting transaction
+    * @param conversion true if the transaction is strengthening
+    * a lock that it already holds
+    */
+   LockRequest(Object key, int txnum, int mode, int priority, boolean conversion) {
+      this.key = key;
+      this.txnum = txnum;
+      this.mode = mode;
+      this.priority = priority;
+      this.conversion = conversion;
+   }
+   
+   Object key() {
+      return key;
+   }
+   
+   int txNumber() {
+      return txnum;
+   }
+   
+   int mode() {
+      return mode;
+   }
+   
+   boolean isConversion() {
+      return conversion;
+   }
+   
+   /**
+    * Returns true if this request's transaction takes precedence
+    * over the other request's transaction.
+    * A transaction of higher priority takes precedence, and
+    * among transactions of equal priority, the older one
+    * (having the smaller ID) does.
+    * @param other another request
+    * @return true if this request takes precedence
+    */
+   boolean precedes(LockRequest other) {
+      if (priority != other.priority)
+         return priority > other.priority;
+      return txnum < other.txnum;
+   }
+   
+   boolean isGranted() {
+      return granted;
+   }
+   
+   boolean isAborted() {
+      return aborted;
+   }
+   
+   /**
+    * Strengthens a granted lock to the specified mode.
+    * @param newmode the new mode of the lock
+    */
+   void upgrade(int newmode) {
+      mode = newmode;
+   }
+   
+   /**
+    * Marks the request as granted,
+    * and wakes up its transaction if it is waiting.
+    */
+   void grant() {
+      granted = true;
+      if (cond != null)
+         cond.signal();
+   }
+   
+   /**
+    * Marks the waiting request as aborted.
+    * The lock table then wakes up its transaction.
+    */
+   void abort() {
+      aborted = true;
+   }
+   
+   /**
+    * Sets the condition on which the requesting
+    * transaction waits.
+    * @param cond the condition
+    */
+   void setCondition(Condition cond) {
+      this.cond = cond;
+   }
+   
+   Condition condition() {
+      return cond;
+   }
+}
@@ -1,103 +1,319 @@
 package simpledb.tx.concurrency;
 
-import simpledb.file.Block;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.*;
 
 /**
- * The lock table, which provides methods to lock and unlock blocks.
- * If a transaction requests a lock that causes a conflict with an
- * existing lock, then that transaction is placed on a wait list.
- * There is only one wait list for all blocks.
- * When the last lock on a block is unlocked, then all transactions
- * are removed from the wait list and rescheduled.
- * If one of those transactions discovers that the lock it is waiting for
- * is still locked, it will place itself back on the wait list.
+ * The lock table, which provides methods to lock and unlock
+ * blocks and files, in the {@link LockMode modes} of
+ * multi-granularity locking.
+ * A lock is identified by its key, which is either a block
+ * or the name of a file.
+ * The table is partitioned into stripes by the hash code of the key,
+ * and each stripe has its own latch, so that transactions
+ * locking keys in different stripes do not contend.
+ * Each lock has a {@link LockQueue} holding its
+ * granted and waiting requests.
+ * If a transaction requests a lock that conflicts with an
+ * existing lock or with an earlier waiting request, then
+ * the request waits in the lock's queue.
+ * Waiting requests are ordered by the priority and age of
+ * their transactions, and a waiting transaction is woken up
+ * only when its request has been granted.
+ * Deadlocks are handled according to the table's policy.
+ * Under {@link ConcurrencyMgr#DETECT}, they are detected with a
+ * {@link WaitsForGraph}: whenever a transaction starts to wait,
+ * the graph is checked for cycles, and the youngest transaction
+ * on each cycle is aborted immediately.
+ * Under {@link ConcurrencyMgr#WAIT_DIE} and {@link ConcurrencyMgr#WOUND_WAIT},
+ * they are prevented by allowing a transaction to wait only for
+ * transactions that it takes precedence over (wound-wait)
+ * or that take precedence over it (wait-die).
  * @author Edward Sciore
  */
 class LockTable {
-   private static final long MAX_TIME = 10000; // 10 seconds
+   private static final int NUM_STRIPES = 64;
    
-   private Map<Block,Integer> locks = new HashMap<Block,Integer>();
+   private Stripe[] stripes = new Stripe[NUM_STRIPES];
+   private WaitsForGraph graph = new WaitsForGraph();
+   private volatile int policy = ConcurrencyMgr.DETECT;
+   private Map<Integer,Boolean> wounded = new ConcurrentHashMap<Integer,Boolean>();
+   private Map<Integer,LockRequest> waitingReqs = new ConcurrentHashMap<Integer,LockRequest>();
+   
+   LockTable() {
+      for (int i=0; i<NUM_STRIPES; i++)
+         stripes[i] = new Stripe();
+   }
+   
+   /**
+    * Sets the policy by which deadlocks are handled.
+    * The policy should be set before any transaction requests a lock.
+    * @param policy DETECT, WAIT_DIE, or WOUND_WAIT
+    */
+   void setPolicy(int policy) {
+      this.policy = policy;
+   }
    
    /**
-    * Grants an SLock on the specified block.
-    * If an XLock exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the lock is released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Grants a lock of the specified mode on a block or file.
+    * If the transaction already holds a weaker lock,
+    * the lock is converted to the combination of the two modes.
+    * If the lock conflicts with a lock held by another
+    * transaction, or with a waiting request that takes
+    * precedence over it, then the calling thread waits
+    * until its request is granted.
+    * If the wait could cause a deadlock and the calling
+    * transaction is chosen as the victim,
+    * then the request is abandoned and an exception is thrown.
+    * The exception is also thrown if the transaction has been
+    * wounded by an older transaction since its last request.
+    * @param key a block, or the name of a file
+    * @param txnum the ID of the requesting transaction
+    * @param mode the requested {@link LockMode lock mode}
+    * @param priority the priority of the requesting transaction
     */
-   public synchronized void sLock(Block blk) {
+   void lock(Object key, int txnum, int mode, int priority) {
+      wounded.putIfAbsent(txnum, false);
+      if (wounded.get(txnum))
+         throw new LockAbortException();
+      Stripe s = stripe(key);
+      LockQueue q;
+      LockRequest req;
+      List<Integer> wounds;
+      s.latch.lock();
+      try {
+         q = s.queues.get(key);
+         if (q == null) {
+            q = new LockQueue();
+            s.queues.put(key, q);
+         }
+         req = q.request(key, txnum, mode, priority);
+         if (!req.isGranted())
+            req.setCondition(s.latch.newCondition());
+         // a granted conversion may block the waiting requests
+         wounds = updateWaits(q, Collections.<LockRequest>emptyList());
+      }
+      finally {
+         s.latch.unlock();
+      }
+      
+      // resolve deadlocks without holding the latch,
+      // since aborting the victim needs the latch of its stripe
+      for (int victim : wounds)
+         wound(victim);
+      if (req.isGranted())
+         return;
+      if (policy == ConcurrencyMgr.DETECT)
+         for (LockRequest victim : graph.findVictims(txnum))
+            abort(victim);
+      
+      // a transaction wounded from now on will find the request
+      waitingReqs.put(txnum, req);
+      if (wounded.get(txnum))
+         req.abort();
+      
+      s.latch.lock();
+      try {
+         while (!req.isGranted() && !req.isAborted())
+            req.condition().await();
+      }
+      catch(InterruptedException e) {}
+      waitingReqs.remove(txnum);
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasXlock(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasXlock(blk))
-            throw new LockAbortException();
-         int val = getLockVal(blk);  // will not be negative
-         locks.put(blk, val+1);
-      }
-      catch(InterruptedException e) {
+         if (!req.isGranted()) {
+            graph.removeWaits(txnum);
+            wounds = updateWaits(q, q.cancel(req));
+            if (q.isEmpty())
+               s.queues.remove(key);
+         }
+      }
+      finally {
+         s.latch.unlock();
+      }
+      if (!req.isGranted()) {
+         for (int victim : wounds)
+            wound(victim);
          throw new LockAbortException();
       }
    }
    
    /**
-    * Grants an XLock on the specified block.
-    * If a lock of any type exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the locks are released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Grants a lock of the specified mode on a block or file,
+    * if it can be granted without waiting.
+    * @param key a block, or the name of a file
+    * @param txnum the ID of the requesting transaction
+    * @param mode the requested {@link LockMode lock mode}
+    * @param priority the priority of the requesting transaction
+    * @return true if the lock was granted
     */
-   synchronized void xLock(Block blk) {
-      try {
-         long timestamp = System.currentTimeMillis();
-         while (hasOtherSLocks(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasOtherSLocks(blk))
-            throw new LockAbortException();
-         locks.put(blk, -1);
-      }
-      catch(InterruptedException e) {
+   boolean tryLock(Object key, int txnum, int mode, int priority) {
+      wounded.putIfAbsent(txnum, false);
+      if (wounded.get(txnum))
          throw new LockAbortException();
+      Stripe s = stripe(key);
+      boolean granted;
+      List<Integer> wounds;
+      s.latch.lock();
+      try {
+         LockQueue q = s.queues.get(key);
+         if (q == null) {
+            q = new LockQueue();
+            s.queues.put(key, q);
+         }
+         LockRequest req = q.request(key, txnum, mode, priority);
+         granted = req.isGranted();
+         if (granted)
+            wounds = updateWaits(q, Collections.<LockRequest>emptyList());
+         else
+            wounds = updateWaits(q, q.cancel(req));
+         if (q.isEmpty())
+            s.queues.remove(key);
+      }
+      finally {
+         s.latch.unlock();
+      }
+      for (int victim : wounds)
+         wound(victim);
+      return granted;
+   }
+   
+   /**
+    * Releases the specified transaction's lock on the block or file.
+    * Waiting requests that can now be granted are granted,
+    * and their transactions are woken up.
+    * @param key a block, or the name of a file
+    * @param txnum the ID of the transaction
+    */
+   void unlock(Object key, int txnum) {
+      Stripe s = stripe(key);
+      List<Integer> wounds;
+      s.latch.lock();
+      try {
+         LockQueue q = s.queues.get(key);
+         if (q == null)
+            return;
+         wounds = updateWaits(q, q.release(txnum));
+         if (q.isEmpty())
+            s.queues.remove(key);
       }
+      finally {
+         s.latch.unlock();
+      }
+      for (int victim : wounds)
+         wound(victim);
+   }
+   
+   /**
+    * Forgets the specified transaction, which has
+    * released all of its locks.
+    * @param txnum the ID of the transaction
+    */
+   void endTransaction(int txnum) {
+      wounded.remove(txnum);
+   }
+   
+   /**
+    * Returns the number of deadlocks detected so far.
+    * @return the number of deadlocks
+    */
+   int deadlockCount() {
+      return graph.deadlockCount();
    }
    
+   
    /**
-    * Releases a lock on the specified block.
-    * If this lock is the last lock on that block,
-    * then the waiting transactions are notified.
-    * @param blk a reference to the disk block
+    * Wakes up the transaction of a deadlock victim,
+    * so that it abandons its aborted request.
+    * If the request has been granted in the meantime,
+    * the transaction keeps the lock instead.
     */
-   synchronized void unlock(Block blk) {
-      int val = getLockVal(blk);
-      if (val > 1)
-         locks.put(blk, val-1);
-      else {
-         locks.remove(blk);
-         notifyAll();
+   private void abort(LockRequest victim) {
+      Stripe s = stripe(victim.key());
+      s.latch.lock();
+      try {
+         victim.condition().signal();
+      }
+      finally {
+         s.latch.unlock();
       }
    }
    
-   private boolean hasXlock(Block blk) {
-      return getLockVal(blk) < 0;
+   /**
+    * Wounds the specified transaction, which holds or awaits
+    * a lock needed by a transaction that takes precedence over it.
+    * If the transaction is waiting, its request is aborted;
+    * otherwise it aborts at its next lock request.
+    * A transaction that has already released its locks
+    * is not affected.
+    */
+   private void wound(int txnum) {
+      if (!wounded.replace(txnum, false, true))
+         return;
+      LockRequest req = waitingReqs.get(txnum);
+      if (req == null)
+         return;
+      Stripe s = stripe(req.key());
+      s.latch.lock();
+      try {
+         if (!req.isGranted()) {
+            req.abort();
+            req.condition().signal();
+         }
+      }
+      finally {
+         s.latch.unlock();
+      }
    }
    
-   private boolean hasOtherSLocks(Block blk) {
-      return getLockVal(blk) > 1;
+   /**
+    * Updates the waits after a change to the queue:
+    * the newly-granted transactions no longer wait, and the
+    * remaining waiting transactions may wait for different ones.
+    * Under deadlock detection, the waits-for graph is updated.
+    * Under wait-die, a waiting transaction that waits for
+    * one that takes precedence over it is aborted.
+    * Under wound-wait, the transactions waited for by one
+    * that takes precedence over them are returned, to be wounded
+    * after the stripe's latch is released.
+    */
+   private List<Integer> updateWaits(LockQueue q, List<LockRequest> granted) {
+      List<Integer> wounds = new ArrayList<Integer>();
+      if (policy == ConcurrencyMgr.DETECT) {
+         for (LockRequest req : granted)
+            graph.removeWaits(req.txNumber());
+         for (LockRequest req : q.waitingRequests())
+            graph.setWaits(req, q.blockers(req));
+         return wounds;
+      }
+      for (LockRequest req : q.waitingRequests()) {
+         if (req.isAborted())
+            continue;
+         for (LockRequest b : q.blockingRequests(req)) {
+            if (b.isAborted())
+               continue;
+            if (policy == ConcurrencyMgr.WAIT_DIE && b.precedes(req)) {
+               req.abort();
+               req.condition().signal();
+               break;
+            }
+            if (policy == ConcurrencyMgr.WOUND_WAIT && req.precedes(b))
+               wounds.add(b.txNumber());
+         }
+      }
+      return wounds;
    }
    
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+   private Stripe stripe(Object key) {
+      return stripes[(key.hashCode() & Integer.MAX_VALUE) % NUM_STRIPES];
    }
    
-   private int getLockVal(Block blk) {
-      Integer ival = locks.get(blk);
-      return (ival == null) ? 0 : ival.intValue();
+   /**
+    * A partition of the lock table, consisting of
+    * a latch and the lock queues of its keys.
+    */
+   private static class Stripe {
+      ReentrantLock latch = new ReentrantLock();
+      Map<Object,LockQueue> queues = new HashMap<Object,LockQueue>();
    }
 }
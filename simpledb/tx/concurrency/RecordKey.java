@@ -0,0 +1,40 @@
+package simpledb.tx.concurrency;
+
+import simpledb.file.Block;
+
+/**
+ * The lock-table key of a record, which is
+ * identified by its block and its slot within the block.
+ */
+class RecordKey {
+   private Block blk;
+   private int id;
+   
+   RecordKey(Block blk, int id) {
+      this.blk = blk;
+      this.id = id;
+   }
+   
+   /**
+    * Returns the block containing the record.
+    * @return the block of the record
+    */
+   Block block() {
+      return blk;
+   }
+   
+   public boolean equals(Object obj) {
+      if (!(obj instanceof RecordKey))
+         return false;
+      RecordKey key = (RecordKey) obj;
+      return blk.equals(key.blk) && id == key.id;
+   }
+   
+   public int hashCode() {
+      return 31 * blk.hashCode() + id;
+   }
+   
+   public String toString() {
+      return "[" + blk + ", record " + id + "]";
+   }
+}
@@ -0,0 +1,13 @@
+package simpledb.tx.concurrency;
+
+/**
+ * A runtime exception indicating that an optimistic
+ * transaction failed validation at commit,
+ * because another transaction modified a block that it read.
+ * The transaction needs to be rolled back.
+ */
+@SuppressWarnings("serial")
+public class ValidationException extends RuntimeException {
+   public ValidationException() {
+   }
+}
@@ -0,0 +1,269 @@
+package simpledb.tx.concurrency;
+
+import simpledb.file.Block;
+import simpledb.buffer.Buffer;
+import java.util.*;
+
+/**
+ * The in-memory store of old value versions,
+ * which lets snapshot transactions read without locking.
+ * Values are versioned individually, rather than whole blocks,
+ * because different transactions may modify
+ * different records of the same block.
+ * Before a transaction first modifies a value, it saves
+ * the old value, which is the latest committed version.
+ * When the transaction commits, it is assigned the next
+ * commit sequence number (CSN), and each of its saved values
+ * is stamped with that number: the value was the current
+ * version for every snapshot taken before then.
+ * A snapshot transaction is given the current CSN when it starts,
+ * and reads each value from the earliest version stamped with
+ * a later CSN.  If there is none, it reads the value saved by
+ * an uncommitted writer, if any, and otherwise the block itself.
+ * A version is discarded when no active snapshot is older than its CSN.
+ * <p>
+ * A block filled by a bulk load is versioned as a whole,
+ * since its values are written without being saved:
+ * a snapshot that does not see the load reads
+ * every value of the block as zero, or as an empty string,
+ * which every record format reads as a block without records.
+ */
+class VersionStore {
+   private static final int UNCOMMITTED = Integer.MAX_VALUE;
+   private static final int WHOLE_BLOCK = -1;
+   
+   private int csn = 0;
+   private Map<ValueKey,List<Version>> versions = new HashMap<ValueKey,List<Version>>();
+   private Map<Integer,List<Version>> pending = new HashMap<Integer,List<Version>>();
+   private LinkedList<Version> committed = new LinkedList<Version>();
+   private TreeMap<Integer,Integer> snapshots = new TreeMap<Integer,Integer>();
+   
+   /**
+    * Starts a snapshot, and returns its CSN.
+    * The snapshot sees exactly the transactions
+    * whose CSN is no greater than that number.
+    * @return the CSN of the snapshot
+    */
+   synchronized int beginSnapshot() {
+      Integer count = snapshots.get(csn);
+      snapshots.put(csn, (count == null) ? 1 : count+1);
+      return csn;
+   }
+   
+   /**
+    * Returns the CSN of the most recently committed
+    * transaction that modified the database.
+    * A snapshot begun now would have this CSN.
+    * @return the current CSN
+    */
+   synchronized int currentCSN() {
+      return csn;
+   }
+   
+   /**
+    * Ends the snapshot having the specified CSN,
+    * and discards the versions that no longer are needed.
+    * @param snapcsn the CSN of the snapshot
+    */
+   synchronized void endSnapshot(int snapcsn) {
+      int count = snapshots.get(snapcsn);
+      if (count > 1)
+         snapshots.put(snapcsn, count-1);
+      else
+         snapshots.remove(snapcsn);
+      collectGarbage();
+   }
+   
+   /**
+    * Saves the old value at the specified offset of a block,
+    * on behalf of a transaction that is about to modify it.
+    * Nothing is saved if the transaction has already
+    * saved the value, since the saved one is the committed version.
+    * @param txnum the ID of the modifying transaction
+    * @param blk the block containing the value
+    * @param offset the byte offset of the value
+    * @param oldval the value, an Integer or a String
+    */
+   synchronized void save(int txnum, Block blk, int offset, Object oldval) {
+      ValueKey key = new ValueKey(blk, offset);
+      List<Version> chain = versions.get(key);
+      if (chain == null) {
+         chain = new ArrayList<Version>();
+         versions.put(key, chain);
+      }
+      for (Version v : chain)
+         if (v.txnum == txnum && v.endcsn == UNCOMMITTED)
+            return;
+      Version v = new Version(key, txnum, oldval);
+      chain.add(v);
+      List<Version> txversions = pending.get(txnum);
+      if (txversions == null) {
+         txversions = new ArrayList<Version>();
+         pending.put(txnum, txversions);
+      }
+      txversions.add(v);
+   }
+   
+   /**
+    * Saves the empty version of a block,
+    * on behalf of a transaction that is about to bulk load it.
+    * @param txnum the ID of the loading transaction
+    * @param blk the block
+    */
+   synchronized void saveBlock(int txnum, Block blk) {
+      save(txnum, blk, WHOLE_BLOCK, null);
+   }
+   
+   /**
+    * Stamps the versions saved by the committing transaction
+    * with the next CSN.
+    * A transaction that saved no versions modified nothing,
+    * and is not assigned a CSN.
+    * @param txnum the ID of the committing transaction
+    */
+   synchronized void commit(int txnum) {
+      List<Version> txversions = pending.remove(txnum);
+      if (txversions == null)
+         return;
+      csn++;
+      for (Version v : txversions) {
+         v.endcsn = csn;
+         committed.add(v);
+      }
+      collectGarbage();
+   }
+   
+   /**
+    * Discards the versions saved by a transaction
+    * that has rolled back, since its blocks
+    * once again hold those values.
+    * @param txnum the ID of the transaction
+    */
+   synchronized void rollback(int txnum) {
+      List<Version> txversions = pending.remove(txnum);
+      if (txversions == null)
+         return;
+      for (Version v : txversions)
+         remove(v);
+   }
+   
+   /**
+    * Returns the integer at the specified offset of the
+    * buffer's block, as of the specified snapshot.
+    * The buffer is read while holding the store's lock, so
+    * that no writer can modify it without first saving its version.
+    * @param buff the buffer holding the current version of the block
+    * @param offset the byte offset within the block
+    * @param snapcsn the CSN of the snapshot
+    * @return the integer stored at that offset in the snapshot
+    */
+   synchronized int getInt(Buffer buff, int offset, int snapcsn) {
+      Version v = find(buff.block(), offset, snapcsn);
+      if (v == null)
+         return buff.getInt(offset);
+      return (v.val == null) ? 0 : (Integer) v.val;
+   }
+   
+   /**
+    * Returns the string at the specified offset of the
+    * buffer's block, as of the specified snapshot.
+    * @param buff the buffer holding the current version of the block
+    * @param offset the byte offset within the block
+    * @param snapcsn the CSN of the snapshot
+    * @return the string stored at that offset in the snapshot
+    */
+   synchronized String getString(Buffer buff, int offset, int snapcsn) {
+      Version v = find(buff.block(), offset, snapcsn);
+      if (v == null)
+         return buff.getString(offset);
+      return (v.val == null) ? "" : (String) v.val;
+   }
+   
+   /**
+    * Returns the version of the value seen by the snapshot,
+    * which is the one with the smallest CSN later than the snapshot's.
+    * The empty version of a bulk-loaded block takes precedence
+    * over the versions of its values saved by the same transaction.
+    * Returns null if the block itself holds that version.
+    */
+   private Version find(Block blk, int offset, int snapcsn) {
+      Version result = find(new ValueKey(blk, offset), snapcsn);
+      Version empty = find(new ValueKey(blk, WHOLE_BLOCK), snapcsn);
+      if (empty != null && (result == null || empty.endcsn <= result.endcsn))
+         return empty;
+      return result;
+   }
+   
+   private Version find(ValueKey key, int snapcsn) {
+      List<Version> chain = versions.get(key);
+      if (chain == null)
+         return null;
+      Version result = null;
+      for (Version v : chain)
+         if (v.endcsn > snapcsn && (result == null || v.endcsn < result.endcsn))
+            result = v;
+      return result;
+   }
+   
+   /**
+    * Discards the committed versions that are not needed
+    * by any active snapshot.
+    * A version is needed only by snapshots older than its CSN,
+    * and new snapshots will not be older than the current CSN.
+    * Since versions are committed in CSN order,
+    * the discarded versions are at the front of the list.
+    */
+   private void collectGarbage() {
+      int oldest = snapshots.isEmpty() ? csn : snapshots.firstKey();
+      while (!committed.isEmpty() && committed.getFirst().endcsn <= oldest)
+         remove(committed.removeFirst());
+   }
+   
+   private void remove(Version v) {
+      List<Version> chain = versions.get(v.key);
+      chain.remove(v);
+      if (chain.isEmpty())
+         versions.remove(v.key);
+   }
+   
+   /**
+    * The location of a value: a block and an offset within it.
+    */
+   private static class ValueKey {
+      Block blk;
+      int offset;
+      
+      ValueKey(Block blk, int offset) {
+         this.blk = blk;
+         this.offset = offset;
+      }
+      
+      public boolean equals(Object obj) {
+         if (!(obj instanceof ValueKey))
+            return false;
+         ValueKey key = (ValueKey) obj;
+         return blk.equals(key.blk) && offset == key.offset;
+      }
+      
+      public int hashCode() {
+         return 31 * blk.hashCode() + offset;
+      }
+   }
+   
+   /**
+    * A saved value, the transaction that replaced it,
+    * and the CSN of that transaction.
+    */
+   private static class Version {
+      ValueKey key;
+      int txnum;
+      Object val;
+      int endcsn = UNCOMMITTED;
+      
+      Version(ValueKey key, int txnum, Object val) {
+         this.key = key;
+         this.txnum = txnum;
+         this.val = val;
+      }
+   }
+}
@@ -0,0 +1,124 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+
+/**
+ * The waits-for graph of the lock table.
+ * There is an edge from each waiting transaction
+ * to each transaction it waits for.
+ * The lock table updates the edges of a block's waiting
+ * transactions whenever the block's queue changes,
+ * and checks for a cycle whenever a transaction starts to wait.
+ * Since a transaction waits for at most one lock at a time,
+ * the graph also records the request it is waiting on.
+ */
+class WaitsForGraph {
+   private Map<Integer,Set<Integer>> edges = new HashMap<Integer,Set<Integer>>();
+   private Map<Integer,LockRequest> waiting = new HashMap<Integer,LockRequest>();
+   private int deadlocks = 0;
+   
+   /**
+    * Records that the specified request waits for
+    * the specified transactions.
+    * @param req a waiting request
+    * @param blockers the IDs of the transactions it waits for
+    */
+   synchronized void setWaits(LockRequest req, Set<Integer> blockers) {
+      edges.put(req.txNumber(), blockers);
+      waiting.put(req.txNumber(), req);
+   }
+   
+   /**
+    * Records that the specified transaction no longer waits.
+    * @param txnum the ID of the transaction
+    */
+   synchronized void removeWaits(int txnum) {
+      edges.remove(txnum);
+      waiting.remove(txnum);
+   }
+   
+   /**
+    * Finds the cycles through the specified transaction,
+    * which has just started to wait.
+    * For each cycle, the deadlock is counted, and the youngest
+    * transaction on it (that is, the one with the largest ID)
+    * is chosen as the victim.
+    * The search is repeated without the victims until
+    * no cycle remains, or until the specified transaction
+    * is itself chosen.
+    * The requests of the victims are marked as aborted,
+    * so that each deadlock is counted once.
+    * Transactions that have already been aborted are ignored,
+    * since they are about to stop waiting.
+    * @param txnum the ID of the waiting transaction
+    * @return the waiting requests of the victims
+    */
+   synchronized List<LockRequest> findVictims(int txnum) {
+      List<LockRequest> victims = new ArrayList<LockRequest>();
+      Set<Integer> excluded = new HashSet<Integer>();
+      int victim = findCycle(txnum, excluded);
+      while (victim >= 0) {
+         deadlocks++;
+         LockRequest req = waiting.get(victim);
+         req.abort();
+         victims.add(req);
+         if (victim == txnum)
+            break;
+         excluded.add(victim);
+         victim = findCycle(txnum, excluded);
+      }
+      return victims;
+   }
+   
+   /**
+    * Returns the number of deadlocks detected so far.
+    * @return the number of deadlocks
+    */
+   synchronized int deadlockCount() {
+      return deadlocks;
+   }
+   
+   /**
+    * Searches depth-first for a path from the specified
+    * transaction back to itself, avoiding the excluded
+    * and aborted transactions.
+    * @return the largest transaction ID on the cycle, or -1 if there is none
+    */
+   private int findCycle(int txnum, Set<Integer> excluded) {
+      Map<Integer,Integer> parent = new HashMap<Integer,Integer>();
+      Deque<Integer> stack = new ArrayDeque<Integer>();
+      stack.push(txnum);
+      while (!stack.isEmpty()) {
+         int tx = stack.pop();
+         Set<Integer> next = edges.get(tx);
+         if (next == null)
+            continue;
+         for (int n : next) {
+            if (n == txnum)
+               return youngest(tx, parent, txnum);
+            if (!parent.containsKey(n) && !excluded.contains(n) && !isAborted(n)) {
+               parent.put(n, tx);
+               stack.push(n);
+            }
+         }
+      }
+      return -1;
+   }
+   
+   private boolean isAborted(int txnum) {
+      LockRequest req = waiting.get(txnum);
+      return req != null && req.isAborted();
+   }
+   
+   /**
+    * Returns the largest transaction ID on the cycle
+    * that ends at the specified transaction and
+    * is recorded by the parent map.
+    */
+   private int youngest(int last, Map<Integer,Integer> parent, int first) {
+      int result = first;
+      for (int tx = last; tx != first; tx = parent.get(tx))
+         result = Math.max(result, tx);
+      return result;
+   }
+}
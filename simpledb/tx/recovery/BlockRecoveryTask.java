@@ -0,0 +1,76 @@
+package simpledb.tx.recovery;
+
+import java.util.List;
+
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/**
+ * The recovery work for a single block.
+ * The task reads the block into a private page,
+ * undoes the modifications of unfinished transactions
+ * in reverse log order, redoes the modifications of
+ * finished transactions in log order, and then writes
+ * the page back to disk.
+ * A bulk load creates the block anew, so the records that
+ * precede the block's latest load are neither undone nor redone.
+ * Tasks for different blocks are independent of each other,
+ * and so can be run concurrently.
+ */
+class BlockRecoveryTask implements Runnable {
+   private Block blk;
+   private List<UpdateRecord> recs;
+   private List<Boolean> finished;
+   private int txnum;
+   private RecoveryProgress progress;
+   
+   /**
+    * Creates the recovery task for the specified block.
+    * @param blk the block to recover
+    * @param recs the block's log records, in reverse log order
+    * @param finished whether each record's transaction committed or rolled back
+    * @param txnum the id of the recovering transaction
+    * @param progress the progress of the overall recovery
+    */
+   public BlockRecoveryTask(Block blk, List<UpdateRecord> recs, List<Boolean> finished,
+                            int txnum, RecoveryProgress progress) {
+      this.blk = blk;
+      this.recs = recs;
+      this.finished = finished;
+      this.txnum = txnum;
+      this.progress = progress;
+   }
+   
+   public void run() {
+      Page pg = new Page();
+      pg.read(blk);
+      int count = sinceLoad();
+      long lsn = -1;
+      for (int i=0; i<count; i++)
+         if (!finished.get(i))
+            lsn = Math.max(lsn, recs.get(i).undo(txnum, pg));
+      for (int i=count-1; i>=0; i--)
+         if (finished.get(i))
+            recs.get(i).redo(pg);
+      if (lsn >= 0)
+         SimpleDB.logMgr().flush(lsn);
+      pg.write(blk);
+      progress.blockDone();
+   }
+   
+   /**
+    * Returns the number of the block's records from the
+    * end of the log back to its latest load record, inclusive,
+    * or the number of all its records if it has none.
+    * A clear record only compensates for a load,
+    * and so is not a load.
+    */
+   private int sinceLoad() {
+      for (int i=0; i<recs.size(); i++) {
+         UpdateRecord rec = recs.get(i);
+         if (rec.op() == LogRecord.LOADBLOCK && !((LoadRecord) rec).isClear())
+            return i + 1;
+      }
+      return recs.size();
+   }
+}
@@ -26,7 +26,7 @@ class CheckpointRecord implements LogRecord {
     * and nothing else.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {CHECKPOINT};
       return logMgr.append(rec);
    }
@@ -0,0 +1,56 @@
+package simpledb.tx.recovery;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import simpledb.server.SimpleDB;
+
+/**
+ * A background thread that periodically writes
+ * nonquiescent checkpoints.
+ * A checkpoint is written whenever the log has grown by
+ * a fixed amount since the previous checkpoint,
+ * or whenever a fixed amount of time has elapsed,
+ * so that the time needed for recovery stays bounded
+ * even while transactions run continuously.
+ */
+public class CheckpointScheduler extends Thread {
+   private static final int  MAX_LOG_BLOCKS = 100;
+   private static final long MAX_TIME = 60000; // 1 minute
+   private static final long POLL_TIME = 1000; // 1 second
+   
+   private long lastlsn = -1;
+   private long lasttime = System.currentTimeMillis();
+   
+   /**
+    * Creates the scheduler as a daemon thread.
+    * The thread must be started by the caller.
+    */
+   public CheckpointScheduler() {
+      super("checkpoint scheduler");
+      setDaemon(true);
+   }
+   
+   public void run() {
+      try {
+         while (true) {
+            sleep(POLL_TIME);
+            if (checkpointDue())
+               checkpoint();
+         }
+      }
+      catch(InterruptedException e) {}
+   }
+   
+   /**
+    * Writes a checkpoint, and records its LSN and time.
+    */
+   public synchronized void checkpoint() {
+      lastlsn = RecoveryMgr.checkpoint(lastlsn);
+      lasttime = System.currentTimeMillis();
+   }
+   
+   private synchronized boolean checkpointDue() {
+      long loggrowth = SimpleDB.logMgr().currentLSN() - Math.max(lastlsn, 0);
+      long elapsed = System.currentTimeMillis() - lasttime;
+      return loggrowth >= MAX_LOG_BLOCKS * BLOCK_SIZE || elapsed >= MAX_TIME;
+   }
+}
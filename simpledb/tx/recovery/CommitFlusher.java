@@ -0,0 +1,128 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * A background thread that makes asynchronous commits durable.
+ * An asynchronous commit returns as soon as its commit record
+ * is in the log buffer, and registers the record here.
+ * The flusher writes the log to disk once the oldest pending
+ * commit has waited for half of the durability window,
+ * leaving the other half for the disk write,
+ * so that every commit is durable within the window.
+ * The commits that arrive in the meantime are made durable
+ * by the same write.
+ * The flusher measures the durability lag of each commit,
+ * which is the time from the commit until its record is on disk.
+ * If the write fails, the failure is reported and the commits
+ * remain pending, so that the write is retried after half
+ * of the window and the durability lag keeps growing.
+ */
+public class CommitFlusher extends Thread {
+   private long window;
+   private long pendinglsn = -1; // negative means no pending commits
+   private long oldesttime;
+   private long flushtime = -1; // the oldest commit in the flush under way
+   private volatile long lastlag = 0;
+   private volatile long maxlag = 0;
+   
+   /**
+    * Creates the flusher as a daemon thread.
+    * The thread must be started by the caller.
+    * @param window the durability window, in milliseconds
+    */
+   public CommitFlusher(long window) {
+      super("commit flusher");
+      setDaemon(true);
+      this.window = window;
+   }
+   
+   /**
+    * Registers the commit record having the specified LSN,
+    * which must be made durable within the window.
+    * @param lsn the LSN of the commit record
+    */
+   public synchronized void commitWritten(long lsn) {
+      if (pendinglsn < 0) {
+         oldesttime = System.currentTimeMillis();
+         notifyAll();
+      }
+      pendinglsn = Math.max(pendinglsn, lsn);
+   }
+   
+   /**
+    * Returns the current durability lag, which is
+    * how long the oldest commit that is not yet durable has waited.
+    * @return the current lag in milliseconds, or 0 if all commits are durable
+    */
+   public synchronized long durabilityLag() {
+      long oldest = (flushtime >= 0) ? flushtime : oldesttime;
+      if (flushtime < 0 && pendinglsn < 0)
+         return 0;
+      return System.currentTimeMillis() - oldest;
+   }
+   
+   /**
+    * Returns the durability lag of the oldest commit
+    * in the most recent flush.
+    * @return the lag in milliseconds
+    */
+   public long lastDurabilityLag() {
+      return lastlag;
+   }
+   
+   /**
+    * Returns the largest durability lag observed
+    * since the system started.
+    * @return the maximum lag in milliseconds
+    */
+   public long maxDurabilityLag() {
+      return maxlag;
+   }
+   
+   public void run() {
+      try {
+         while (true) {
+            long lsn;
+            synchronized(this) {
+               while (pendinglsn < 0)
+                  wait();
+               long delay = oldesttime + window/2 - System.currentTimeMillis();
+               if (delay > 0) {
+                  wait(delay);
+                  continue;
+               }
+               lsn = pendinglsn;
+               flushtime = oldesttime;
+               pendinglsn = -1;
+            }
+            try {
+               SimpleDB.logMgr().flush(lsn);
+            }
+            catch(RuntimeException e) {
+               System.out.println("commit flush failed: " + e.getMessage());
+               retry(lsn);
+               continue;
+            }
+            synchronized(this) {
+               long lag = System.currentTimeMillis() - flushtime;
+               lastlag = lag;
+               maxlag = Math.max(maxlag, lag);
+               flushtime = -1;
+            }
+         }
+      }
+      catch(InterruptedException e) {}
+   }
+   
+   /**
+    * Returns the commits of a failed write to the pending commits,
+    * and waits before the write is retried.
+    */
+   private synchronized void retry(long lsn) throws InterruptedException {
+      oldesttime = flushtime;
+      pendinglsn = Math.max(pendinglsn, lsn);
+      flushtime = -1;
+      wait(Math.max(window/2, 1));
+   }
+}
@@ -31,7 +31,7 @@ class CommitRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
+   public long writeToLog() {
       Object[] rec = new Object[] {COMMIT, txnum};
       return logMgr.append(rec);
    }
@@ -0,0 +1,146 @@
+package simpledb.tx.recovery;
+
+import static simpledb.file.Page.*;
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.file.Page;
+import simpledb.log.BasicLogRecord;
+
+/**
+ * The log record of a block filled by a bulk load.
+ * The record does not hold the block's contents, which
+ * the loading transaction writes to disk before it commits;
+ * redoing a load therefore does nothing.
+ * Since the load creates the block anew, recovery ignores
+ * the block's log records that precede its latest load record;
+ * they modified an earlier block of the same number that was
+ * removed from the file, and redoing them would overwrite the loaded records.
+ * Undoing a load zeroes the block, which every record format
+ * reads as a block without records, and writes a compensating
+ * record marked as a clear, whose redo zeroes the block again.
+ */
+class LoadRecord implements UpdateRecord {
+   private int txnum;
+   private long prevlsn;
+   private boolean clear;
+   private Block blk;
+   
+   /**
+    * Creates a new load record.
+    * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
+    * @param blk the loaded block
+    * @param clear true if the record compensates for a load by zeroing the block
+    */
+   public LoadRecord(int txnum, long prevlsn, Block blk, boolean clear) {
+      this.txnum = txnum;
+      this.prevlsn = prevlsn;
+      this.blk = blk;
+      this.clear = clear;
+   }
+   
+   /**
+    * Creates a log record by reading five other values from the log.
+    * @param rec the basic log record
+    */
+   public LoadRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      clear = rec.nextInt() != 0;
+   }
+   
+   /**
+    * Writes a load record to the log.
+    * This log record contains the LOADBLOCK operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and
+    * number of the block, and whether the record is a clear.
+    * @return the LSN of the last log value
+    */
+   public long writeToLog() {
+      Object[] rec = new Object[] {LOADBLOCK, txnum, prevlsn, blk.fileName(),
+         blk.number(), clear ? 1 : 0};
+      return logMgr.append(rec);
+   }
+   
+   public int op() {
+      return LOADBLOCK;
+   }
+   
+   public int txNumber() {
+      return txnum;
+   }
+   
+   public Block block() {
+      return blk;
+   }
+   
+   public long prevLSN() {
+      return prevlsn;
+   }
+   
+   /**
+    * Returns true if the record compensates for a load
+    * by zeroing the block.
+    * @return true if the record is a clear
+    */
+   boolean isClear() {
+      return clear;
+   }
+   
+   public String toString() {
+      return "<LOADBLOCK " + txnum + " " + prevlsn + " " + blk + (clear ? " CLEAR>" : ">");
+   }
+   
+   /**
+    * Zeroes the loaded block, after writing a compensating
+    * clear record on behalf of the undoing transaction.
+    * A clear record is not itself undone.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      if (clear)
+         return;
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      LogRecord clr = new LoadRecord(txnum, prevlsn, blk, true);
+      long lsn = clr.writeToLog();
+      for (int pos=0; pos+INT_SIZE<=BLOCK_SIZE; pos += INT_SIZE)
+         buff.setInt(pos, 0, txnum, lsn);
+      buffMgr.unpin(buff);
+   }
+   
+   /**
+    * Zeroes the loaded block in the specified page,
+    * after writing a compensating clear record.
+    * Returns -1 for a clear record, which writes nothing.
+    * @see simpledb.tx.recovery.UpdateRecord#undo(int, simpledb.file.Page)
+    */
+   public long undo(int txnum, Page pg) {
+      if (clear)
+         return -1;
+      LogRecord clr = new LoadRecord(txnum, prevlsn, blk, true);
+      long lsn = clr.writeToLog();
+      zero(pg);
+      return lsn;
+   }
+   
+   /**
+    * Zeroes the block in the specified page if the
+    * record is a clear; a load needs no redo.
+    * @see simpledb.tx.recovery.UpdateRecord#redo(simpledb.file.Page)
+    */
+   public void redo(Page pg) {
+      if (clear)
+         zero(pg);
+   }
+   
+   private void zero(Page pg) {
+      for (int pos=0; pos+INT_SIZE<=BLOCK_SIZE; pos += INT_SIZE)
+         pg.setInt(pos, 0);
+   }
+}
@@ -9,11 +9,12 @@ import simpledb.server.SimpleDB;
  */
 public interface LogRecord {
    /**
-    * The six different types of log record
+    * The ten different types of log record
     */
    static final int CHECKPOINT = 0, START = 1,
       COMMIT = 2, ROLLBACK  = 3,
-      SETINT = 4, SETSTRING = 5, UPDATE = 6;
+      SETINT = 4, SETSTRING = 5, NQCHECKPOINT = 6,
+      LOADBLOCK = 7, SETROW = 8, TRUNCATE = 9;
    
    static final LogMgr logMgr = SimpleDB.logMgr();
    
@@ -21,7 +22,7 @@ public interface LogRecord {
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
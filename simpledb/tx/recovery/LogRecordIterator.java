@@ -14,10 +14,10 @@ import simpledb.server.SimpleDB;
  * {@link simpledb.log.LogIterator LogIterator},  
  * this class understands the meaning of the log records.
  * @author Edward Sciore
- * @author Nupur Mallik - Added the update case.
  */
 class LogRecordIterator implements Iterator<LogRecord> {
    private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+   private long lsn = -1;
    
    public boolean hasNext() {
       return iter.hasNext();
@@ -34,6 +34,30 @@ class LogRecordIterator implements Iterator<LogRecord> {
     */
    public LogRecord next() {
       BasicLogRecord rec = iter.next();
+      lsn = rec.lsn();
+      return createLogRecord(rec);
+   }
+   
+   /**
+    * Returns the LSN of the log record most recently
+    * returned by {@link #next()}.
+    * @return the LSN of the current log record
+    */
+   public long currentLSN() {
+      return lsn;
+   }
+   
+   public void remove() {
+      throw new UnsupportedOperationException();
+   }
+   
+   /**
+    * Constructs a log record from the values in the 
+    * specified basic log record.
+    * @param rec the basic log record
+    * @return the corresponding log record, or null if its type is unknown
+    */
+   static LogRecord createLogRecord(BasicLogRecord rec) {
       int op = rec.nextInt();
       switch (op) {
          case CHECKPOINT:
@@ -48,14 +72,16 @@ class LogRecordIterator implements Iterator<LogRecord> {
             return new SetIntRecord(rec);
          case SETSTRING:
             return new SetStringRecord(rec);
-         case UPDATE:
-             return new UpdateRecord(rec);
+         case NQCHECKPOINT:
+            return new NQCheckpointRecord(rec);
+         case LOADBLOCK:
+            return new LoadRecord(rec);
+         case SETROW:
+            return new SetRowRecord(rec);
+         case TRUNCATE:
+            return new TruncateRecord(rec);
          default:
             return null;
       }
-   } 
-   
-   public void remove() {
-      throw new UnsupportedOperationException();
    }
 }
@@ -0,0 +1,100 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+
+import simpledb.log.BasicLogRecord;
+
+/**
+ * The NQCHECKPOINT log record.
+ * A nonquiescent checkpoint is written while transactions
+ * are running. It records the active-transaction table,
+ * as the id and first LSN of each active transaction,
+ * and the dirty-page table, as the smallest recovery LSN
+ * of the dirty buffers.
+ */
+class NQCheckpointRecord implements LogRecord {
+   private long redoLSN;
+   private Map<Integer,Long> activeTxs;
+   
+   /**
+    * Creates a nonquiescent checkpoint record.
+    * @param redoLSN the earliest LSN whose modification may not be on disk
+    * @param activeTxs the first LSN of each active transaction, keyed by id
+    */
+   public NQCheckpointRecord(long redoLSN, Map<Integer,Long> activeTxs) {
+      this.redoLSN = redoLSN;
+      this.activeTxs = activeTxs;
+   }
+   
+   /**
+    * Creates a log record by reading the redo LSN,
+    * the number of active transactions, and the id
+    * and first LSN of each of them from the log.
+    * @param rec the basic log record
+    */
+   public NQCheckpointRecord(BasicLogRecord rec) {
+      redoLSN = rec.nextLong();
+      int count = rec.nextInt();
+      activeTxs = new HashMap<Integer,Long>();
+      for (int i=0; i<count; i++) {
+         int tx = rec.nextInt();
+         activeTxs.put(tx, rec.nextLong());
+      }
+   }
+   
+   /** 
+    * Writes a nonquiescent checkpoint record to the log.
+    * This log record contains the NQCHECKPOINT operator,
+    * followed by the redo LSN, the number of active transactions,
+    * and the id and first LSN of each active transaction.
+    * @return the LSN of the last log value
+    */
+   public long writeToLog() {
+      Object[] rec = new Object[3 + 2*activeTxs.size()];
+      rec[0] = NQCHECKPOINT;
+      rec[1] = redoLSN;
+      rec[2] = activeTxs.size();
+      int i = 3;
+      for (Map.Entry<Integer,Long> e : activeTxs.entrySet()) {
+         rec[i++] = e.getKey();
+         rec[i++] = e.getValue();
+      }
+      return logMgr.append(rec);
+   }
+   
+   public int op() {
+      return NQCHECKPOINT;
+   }
+   
+   /**
+    * Checkpoint records have no associated transaction,
+    * and so the method returns a "dummy", negative txid.
+    */
+   public int txNumber() {
+      return -1; // dummy value
+   }
+   
+   /**
+    * Returns the LSN at which recovery must begin,
+    * which is the earlier of the redo LSN and the
+    * first LSN of the oldest active transaction.
+    * @return the LSN at which recovery must begin
+    */
+   public long startLSN() {
+      long start = redoLSN;
+      for (long lsn : activeTxs.values())
+         if (lsn < start)
+            start = lsn;
+      return start;
+   }
+   
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no undo information.
+    */
+   public void undo(int txnum) {}
+   
+   public String toString() {
+      return "<NQCHECKPOINT " + redoLSN + " " + activeTxs + ">";
+   }
+}
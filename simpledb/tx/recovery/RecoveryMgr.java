@@ -4,56 +4,171 @@ import static simpledb.tx.recovery.LogRecord.*;
 import simpledb.file.Block;
 import simpledb.buffer.Buffer;
 import simpledb.server.SimpleDB;
+import simpledb.tx.TransactionInfo;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * The recovery manager uses undo-redo logging:
+ * each update writes a log record containing both the old
+ * and the new value, so that modified buffers may be written
+ * to disk at any time (steal) and need not be written
+ * when the transaction commits (no-force).
+ * Nonquiescent checkpoints are written using the
+ * active-transaction table of the transaction manager.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   /**
+    * The maximum number of active transactions recorded
+    * in a checkpoint record, so that it fits in a log block.
+    * Since recovery only needs the oldest of them,
+    * the oldest transactions are the ones recorded.
+    */
+   private static final int MAX_CHECKPOINT_TXS = 30;
+   
+   /**
+    * The number of worker threads used by recovery.
+    */
+   private static final int RECOVERY_THREADS = Runtime.getRuntime().availableProcessors();
+   
    private int txnum;
-
+   private volatile long firstlsn = -1; // negative means no START record
+   private long lastlsn = -1;
+   
    /**
     * Creates a recovery manager for the specified transaction.
+    * The transaction's START record is not written until
+    * the transaction first logs an update, so that
+    * a transaction that modifies nothing writes no log records.
     * @param txnum the ID of the specified transaction
     */
    public RecoveryMgr(int txnum) {
       this.txnum = txnum;
-      new StartRecord(txnum).writeToLog();
    }
-
+   
+   /**
+    * Returns the LSN of the transaction's START record,
+    * or a smaller LSN while that record is being written.
+    * Returns -1 if the transaction has not written to the log.
+    * @return the LSN of the transaction's first log record
+    */
+   public long firstLSN() {
+      return firstlsn;
+   }
+   
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The transaction's modified buffers are not flushed;
+    * their updates can be redone from the log if necessary.
+    * A transaction that wrote no log records has nothing
+    * to make durable, and commits without any I/O.
+    * An asynchronous commit does not wait for the flush;
+    * instead, the system's commit flusher makes the record
+    * durable within its window.  If the system crashes before then,
+    * the transaction is rolled back by recovery.
+    * @param async true if the commit is asynchronous
     */
-   public void commit() {
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+   public void commit(boolean async) {
+      if (firstlsn < 0)
+         return;
+      long lsn = new CommitRecord(txnum).writeToLog();
+      CommitFlusher flusher = SimpleDB.commitFlusher();
+      if (async && flusher != null)
+         flusher.commitWritten(lsn);
+      else
+         SimpleDB.logMgr().flush(lsn);
    }
-
+   
    /**
     * Writes a rollback record to the log, and flushes it to disk.
+    * A transaction that wrote no log records has nothing to undo.
     */
    public void rollback() {
+      if (firstlsn < 0)
+         return;
       doRollback();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
+      long lsn = new RollbackRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
-
+   
+   /**
+    * Writes a nonquiescent checkpoint record to the log
+    * and flushes it, without waiting for the active
+    * transactions to finish.
+    * Dirty buffers whose modifications precede the previous
+    * checkpoint are flushed first, so that the amount of log
+    * needed by recovery stays bounded.
+    * The log records preceding the start LSN of the checkpoint
+    * are then no longer needed, and the log is truncated.
+    * <p>
+    * The end of the log is read first, then the active-transaction
+    * table, and then the recovery LSNs of the dirty buffers;
+    * the redo LSN is the earlier of the end of the log and
+    * the smallest recovery LSN.
+    * A transaction logs an update before it marks the buffer
+    * as modified, so the buffers alone may miss an update
+    * whose transaction is still running.
+    * Such a transaction is either in the table with its first LSN,
+    * or it sets its first LSN, and so writes all of its records,
+    * after the end of the log was read.
+    * A transaction that committed before the table was read
+    * marked its buffers before it committed, so its
+    * unflushed updates are covered by the recovery LSNs.
+    * @param prevlsn the LSN of the previous checkpoint, or -1
+    * @return the LSN of the checkpoint record
+    */
+   public static long checkpoint(long prevlsn) {
+      if (prevlsn >= 0)
+         SimpleDB.bufferMgr().flushOlderThan(prevlsn);
+      long redolsn = SimpleDB.logMgr().currentLSN();
+      Map<Integer,Long> active = new HashMap<Integer,Long>();
+      for (TransactionInfo t : SimpleDB.txMgr().activeTransactions()) {
+         long firstlsn = t.firstLSN();
+         if (firstlsn >= 0)
+            active.put(t.txNumber(), firstlsn);
+      }
+      long reclsn = SimpleDB.bufferMgr().minRecoveryLSN();
+      if (reclsn >= 0 && reclsn < redolsn)
+         redolsn = reclsn;
+      List<Map.Entry<Integer,Long>> txs =
+            new ArrayList<Map.Entry<Integer,Long>>(active.entrySet());
+      Collections.sort(txs, new Comparator<Map.Entry<Integer,Long>>() {
+         public int compare(Map.Entry<Integer,Long> e1, Map.Entry<Integer,Long> e2) {
+            return e1.getValue().compareTo(e2.getValue());
+         }
+      });
+      Map<Integer,Long> oldest = new HashMap<Integer,Long>();
+      for (Map.Entry<Integer,Long> e : txs) {
+         if (oldest.size() == MAX_CHECKPOINT_TXS)
+            break;
+         oldest.put(e.getKey(), e.getValue());
+      }
+      NQCheckpointRecord rec = new NQCheckpointRecord(redolsn, oldest);
+      long lsn = rec.writeToLog();
+      SimpleDB.logMgr().flush(lsn);
+      SimpleDB.logMgr().truncate(rec.startLSN());
+      return lsn;
+   }
+   
    /**
     * Recovers uncompleted transactions from the log,
     * then writes a quiescent checkpoint record to the log and flushes it.
+    * The log preceding the checkpoint is no longer needed,
+    * and is truncated.
+    * Recovery reads and writes the affected blocks directly,
+    * and so must be called before any block is pinned.
     */
    public void recover() {
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
+      long lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
-
+      SimpleDB.logMgr().truncate(lsn);
    }
-
+   
    /**
     * Writes a setint record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
@@ -62,25 +177,16 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.getInt(offset);
-      int newblknum = 0; 
       Block blk = buff.block();
-      Block newblk;
-	  if (isTempBlock(blk))
-		  return -1;
-	  else 
-	  {
-		  if(!buff.isModifiedBy(txnum))
-		  {
-			  newblk = buff.saveBlock(blk); 
-    		  return new UpdateRecord(txnum, blk, newblk).writeToLog();
-		  }
-		  else
-			  return -1;
-	  }
+      if (isTempBlock(blk))
+         return -1;
+      writeStartRecord();
+      lastlsn = new SetIntRecord(txnum, lastlsn, blk, offset, oldval, newval).writeToLog();
+      return lastlsn;
    }
-
+   
    /**
     * Writes a setstring record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
@@ -89,66 +195,216 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.getString(offset);
-      int newblknum = 0;
       Block blk = buff.block();
-      Block newblk;
-	  if (isTempBlock(blk))
-		  return -1;
-	  else 
-	  {
-		  if(!buff.isModifiedBy(txnum))
-		  {
-			  newblk = buff.saveBlock(blk); 
-    		  return new UpdateRecord(txnum, blk, newblk).writeToLog();
-		  }
-		  else
-			  return -1;
-	  }
+      if (isTempBlock(blk))
+         return -1;
+      writeStartRecord();
+      lastlsn = new SetStringRecord(txnum, lastlsn, blk, offset, oldval, newval).writeToLog();
+      return lastlsn;
    }
-
+   
+   /**
+    * Writes a setrow record to the log for a modification
+    * of several values of a buffer, and returns the LSN
+    * of the record that logs each value.
+    * The values normally share a single record; if that
+    * record would not fit in a log block, a setint or setstring
+    * record is written for each value instead.
+    * Updates to temporary files are not logged; instead,
+    * "dummy" negative lsns are returned.
+    * @param buff the buffer containing the page
+    * @param offsets the offsets of the values in the page
+    * @param newvals the values to be written, as Integers and Strings
+    * @return the LSN of the log record of each value
+    */
+   public long[] setRow(Buffer buff, int[] offsets, Object[] newvals) {
+      long[] lsns = new long[offsets.length];
+      Block blk = buff.block();
+      if (isTempBlock(blk)) {
+         Arrays.fill(lsns, -1);
+         return lsns;
+      }
+      Object[] oldvals = new Object[offsets.length];
+      for (int i = 0; i < offsets.length; i++) {
+         if (newvals[i] instanceof Integer)
+            oldvals[i] = buff.getInt(offsets[i]);
+         else
+            oldvals[i] = buff.getString(offsets[i]);
+      }
+      writeStartRecord();
+      SetRowRecord rec = new SetRowRecord(txnum, lastlsn, blk, offsets, oldvals, newvals);
+      if (rec.fits()) {
+         lastlsn = rec.writeToLog();
+         Arrays.fill(lsns, lastlsn);
+         return lsns;
+      }
+      for (int i = 0; i < offsets.length; i++) {
+         if (newvals[i] instanceof Integer)
+            lsns[i] = setInt(buff, offsets[i], (Integer) newvals[i]);
+         else
+            lsns[i] = setString(buff, offsets[i], (String) newvals[i]);
+      }
+      return lsns;
+   }
+   
+   /**
+    * Writes a load record to the log for a block that
+    * is about to be filled by a bulk load, and returns its lsn.
+    * The values written to the block are not logged;
+    * instead, the transaction must flush the block before it commits.
+    * Loads into temporary files are not logged; instead, a
+    * "dummy" negative lsn is returned.
+    * @param buff the buffer containing the new block
+    */
+   public long loadBlock(Buffer buff) {
+      Block blk = buff.block();
+      if (isTempBlock(blk))
+         return -1;
+      writeStartRecord();
+      lastlsn = new LoadRecord(txnum, lastlsn, blk, false).writeToLog();
+      return lastlsn;
+   }
+   
+   /**
+    * Writes a truncate record to the log,
+    * after the specified file was truncated.
+    * The record is not flushed: the truncating transaction
+    * holds an XLock on the file, and a transaction that appends
+    * a removed block again after it flushes the record when it commits.
+    * Truncations of temporary files are not logged.
+    * @param filename the name of the truncated file
+    * @param nblocks the number of blocks that remain
+    */
+   public static void truncated(String filename, int nblocks) {
+      if (filename.startsWith("temp"))
+         return;
+      new TruncateRecord(filename, nblocks).writeToLog();
+   }
+   
+   /**
+    * Writes the transaction's START record, if it has not been written.
+    * The first LSN is set to the end of the log before the record
+    * is written, so that a checkpoint that sees no first LSN
+    * read the end of the log before the record was written.
+    */
+   private void writeStartRecord() {
+      if (firstlsn >= 0)
+         return;
+      firstlsn = SimpleDB.logMgr().currentLSN();
+      firstlsn = lastlsn = new StartRecord(txnum).writeToLog();
+   }
+   
    /**
     * Rolls back the transaction.
-    * The method iterates through the log records,
-    * calling undo() for each log record it finds
-    * for the transaction,
-    * until it finds the transaction's START record.
+    * The method follows the chain of the transaction's
+    * log records backwards, starting at its most recent record,
+    * calling undo() for each record in the chain
+    * until it reaches the transaction's START record.
+    * Records of other transactions are never read.
     */
    private void doRollback() {
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(txnum);
-         }
+      long lsn = lastlsn;
+      while (lsn >= 0) {
+         LogRecord rec = LogRecordIterator.createLogRecord(SimpleDB.logMgr().read(lsn));
+         if (rec.op() == START)
+            return;
+         UpdateRecord urec = (UpdateRecord) rec;
+         urec.undo(txnum);
+         lsn = urec.prevLSN();
       }
    }
-
+   
    /**
     * Does a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
+    * The method reads the log once, backwards, and
+    * partitions the update records by block,
+    * noting for each whether its transaction
+    * committed or rolled back.
+    * It stops when it encounters a CHECKPOINT record
     * or the end of the log.
+    * If it encounters an NQCHECKPOINT record, it continues
+    * until it reaches the start LSN recorded there, which
+    * precedes every modification that might not be on disk
+    * and the first record of every transaction active at
+    * checkpoint time.
+    * Each block is then recovered by a separate task:
+    * the records of unfinished transactions are undone,
+    * and the records of finished transactions are redone.
+    * The tasks run concurrently on a pool of worker threads.
+    * The undo of a rolled-back transaction was itself logged,
+    * so redoing such a transaction reproduces its rollback.
+    * The records of a block that precede a TRUNCATE record
+    * removing it are ignored, since the block may
+    * have been appended to the file again since.
     */
    private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<Integer>();
-      Iterator<LogRecord> iter = new LogRecordIterator();
+      Collection<Integer> finishedTxs = new HashSet<Integer>();
+      Map<Block,List<UpdateRecord>> blockRecs = new LinkedHashMap<Block,List<UpdateRecord>>();
+      Map<Block,List<Boolean>> blockFinished = new HashMap<Block,List<Boolean>>();
+      Map<String,Integer> truncations = new HashMap<String,Integer>();
+      LogRecordIterator iter = new LogRecordIterator();
+      long startlsn = -1;
       while (iter.hasNext()) {
          LogRecord rec = iter.next();
+         if (iter.currentLSN() < startlsn)
+            break;
          if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
+            break;
+         if (rec.op() == NQCHECKPOINT) {
+            if (startlsn < 0)
+               startlsn = ((NQCheckpointRecord) rec).startLSN();
+         }
+         else if (rec.op() == COMMIT || rec.op() == ROLLBACK)
             finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-        	rec.undo(txnum);
+         else if (rec.op() == TRUNCATE) {
+            TruncateRecord trec = (TruncateRecord) rec;
+            Integer nblocks = truncations.get(trec.fileName());
+            if (nblocks == null || trec.blocks() < nblocks)
+               truncations.put(trec.fileName(), trec.blocks());
+         }
+         else if (rec instanceof UpdateRecord) {
+            UpdateRecord urec = (UpdateRecord) rec;
+            Block blk = urec.block();
+            Integer nblocks = truncations.get(blk.fileName());
+            if (nblocks != null && blk.number() >= nblocks)
+               continue;
+            if (!blockRecs.containsKey(blk)) {
+               blockRecs.put(blk, new ArrayList<UpdateRecord>());
+               blockFinished.put(blk, new ArrayList<Boolean>());
+            }
+            blockRecs.get(blk).add(urec);
+            blockFinished.get(blk).add(finishedTxs.contains(rec.txNumber()));
+         }
+      }
+      if (blockRecs.isEmpty())
+         return;
+      
+      RecoveryProgress progress = new RecoveryProgress(blockRecs.size());
+      int nthreads = Math.min(RECOVERY_THREADS, blockRecs.size());
+      ExecutorService workers = Executors.newFixedThreadPool(nthreads);
+      try {
+         List<Future<?>> results = new ArrayList<Future<?>>();
+         for (Block blk : blockRecs.keySet()) {
+            Runnable task = new BlockRecoveryTask(blk, blockRecs.get(blk),
+                                   blockFinished.get(blk), txnum, progress);
+            results.add(workers.submit(task));
+         }
+         for (Future<?> f : results)
+            f.get();
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("recovery interrupted");
+      }
+      catch(ExecutionException e) {
+         throw new RuntimeException("recovery failed", e.getCause());
+      }
+      finally {
+         workers.shutdown();
       }
    }
-
+   
    /**
     * Determines whether a block comes from a temporary file or not.
     */
@@ -0,0 +1,39 @@
+package simpledb.tx.recovery;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of how many blocks recovery has processed,
+ * and reports its progress each time another tenth
+ * of the blocks is done.
+ */
+class RecoveryProgress {
+   private int total;
+   private AtomicInteger done = new AtomicInteger(0);
+   
+   /**
+    * Creates a progress tracker for the specified number of blocks.
+    * @param total the number of blocks to be recovered
+    */
+   public RecoveryProgress(int total) {
+      this.total = total;
+      System.out.println("recovering " + total + " blocks");
+   }
+   
+   /**
+    * Records that another block has been recovered.
+    */
+   public void blockDone() {
+      int n = done.incrementAndGet();
+      if (n == total || n * 10 / total > (n-1) * 10 / total)
+         System.out.println("recovered " + n + " of " + total + " blocks");
+   }
+   
+   /**
+    * Returns the number of blocks recovered so far.
+    * @return the number of recovered blocks
+    */
+   public int blocksDone() {
+      return done.get();
+   }
+}
@@ -0,0 +1,194 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.file.Page;
+import simpledb.log.BasicLogRecord;
+import java.util.*;
+
+/**
+ * The log record of a modification to several values of
+ * a block, such as the fields of a record, made at once.
+ * Each value is an integer or a string, and is logged with
+ * its offset and its old and new values.
+ * The offset of a string is logged as a negative number,
+ * so that the type of each value takes no space of its own.
+ * One such record replaces a setint or setstring record
+ * for each value.
+ */
+class SetRowRecord implements UpdateRecord {
+   private int txnum;
+   private long prevlsn;
+   private Block blk;
+   private int[] offsets;
+   private Object[] oldvals, newvals;
+   
+   /**
+    * Creates a new setrow log record.
+    * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
+    * @param blk the block containing the values
+    * @param offsets the offsets of the values in the block
+    * @param oldvals the values before the modification, as Integers and Strings
+    * @param newvals the values after the modification
+    */
+   public SetRowRecord(int txnum, long prevlsn, Block blk, int[] offsets,
+                       Object[] oldvals, Object[] newvals) {
+      this.txnum = txnum;
+      this.prevlsn = prevlsn;
+      this.blk = blk;
+      this.offsets = offsets;
+      this.oldvals = oldvals;
+      this.newvals = newvals;
+   }
+   
+   /**
+    * Creates a log record by reading its values from the log.
+    * @param rec the basic log record
+    */
+   public SetRowRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      int n = rec.nextInt();
+      offsets = new int[n];
+      oldvals = new Object[n];
+      newvals = new Object[n];
+      for (int i = 0; i < n; i++) {
+         int offset = rec.nextInt();
+         if (offset >= 0) {
+            offsets[i] = offset;
+            oldvals[i] = rec.nextInt();
+            newvals[i] = rec.nextInt();
+         }
+         else {
+            offsets[i] = -offset - 1;
+            oldvals[i] = rec.nextString();
+            newvals[i] = rec.nextString();
+         }
+      }
+   }
+   
+   /**
+    * Writes a setrow record to the log.
+    * This log record contains the SETROW operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and
+    * number of the modified block, the number of values,
+    * and the offset, old and new value of each one.
+    * @return the LSN of the last log value
+    */
+   public long writeToLog() {
+      return logMgr.append(toLogValues());
+   }
+   
+   /**
+    * Returns true if the record fits in a log block.
+    * A row whose record does not fit is logged
+    * one value at a time instead.
+    * @return true if the record can be written to the log
+    */
+   boolean fits() {
+      return logMgr.fits(toLogValues());
+   }
+   
+   public int op() {
+      return SETROW;
+   }
+   
+   public int txNumber() {
+      return txnum;
+   }
+   
+   public Block block() {
+      return blk;
+   }
+   
+   public long prevLSN() {
+      return prevlsn;
+   }
+   
+   public String toString() {
+      String result = "<SETROW " + txnum + " " + prevlsn + " " + blk;
+      for (int i = 0; i < offsets.length; i++)
+         result += " " + offsets[i] + ":" + oldvals[i] + "/" + newvals[i];
+      return result + ">";
+   }
+   
+   /**
+    * Restores the old values saved in the log record.
+    * The method pins a buffer to the specified block,
+    * writes a compensating log record on behalf of the
+    * undoing transaction, restores the saved values,
+    * and unpins the buffer.
+    * As with a setint record, the compensating record
+    * points to the same previous record as the undone one.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      long lsn = compensate(txnum);
+      for (int i = offsets.length-1; i >= 0; i--) {
+         if (oldvals[i] instanceof Integer)
+            buff.setInt(offsets[i], (Integer) oldvals[i], txnum, lsn);
+         else
+            buff.setString(offsets[i], (String) oldvals[i], txnum, lsn);
+      }
+      buffMgr.unpin(buff);
+   }
+   
+   /**
+    * Restores the old values saved in the log record
+    * in the specified page, after writing a compensating
+    * log record on behalf of the undoing transaction.
+    * @see simpledb.tx.recovery.UpdateRecord#undo(int, simpledb.file.Page)
+    */
+   public long undo(int txnum, Page pg) {
+      long lsn = compensate(txnum);
+      apply(pg, oldvals);
+      return lsn;
+   }
+   
+   /**
+    * Reapplies the new values saved in the log record
+    * to the specified page.
+    * @see simpledb.tx.recovery.UpdateRecord#redo(simpledb.file.Page)
+    */
+   public void redo(Page pg) {
+      apply(pg, newvals);
+   }
+   
+   /**
+    * Writes the compensating record, whose new values are the old ones.
+    * The values being replaced are taken to be the record's new values.
+    */
+   private long compensate(int txnum) {
+      LogRecord clr = new SetRowRecord(txnum, prevlsn, blk, offsets, newvals, oldvals);
+      return clr.writeToLog();
+   }
+   
+   private void apply(Page pg, Object[] vals) {
+      for (int i = 0; i < offsets.length; i++) {
+         if (vals[i] instanceof Integer)
+            pg.setInt(offsets[i], (Integer) vals[i]);
+         else
+            pg.setString(offsets[i], (String) vals[i]);
+      }
+   }
+   
+   private Object[] toLogValues() {
+      List<Object> rec = new ArrayList<Object>();
+      rec.addAll(Arrays.asList(SETROW, txnum, prevlsn, blk.fileName(),
+                               blk.number(), offsets.length));
+      for (int i = 0; i < offsets.length; i++) {
+         rec.add((newvals[i] instanceof Integer) ? offsets[i] : -offsets[i] - 1);
+         rec.add(oldvals[i]);
+         rec.add(newvals[i]);
+      }
+      return rec.toArray();
+   }
+}
@@ -3,77 +3,128 @@ package simpledb.tx.recovery;
 import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
+import simpledb.file.Page;
 import simpledb.log.BasicLogRecord;
 
-class SetStringRecord implements LogRecord {
+class SetStringRecord implements UpdateRecord {
    private int txnum, offset;
-   private String val;
+   private long prevlsn;
+   private String oldval, newval;
    private Block blk;
-   
+
    /**
     * Creates a new setstring log record.
     * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
     * @param blk the block containing the value
     * @param offset the offset of the value in the block
-    * @param val the new value
+    * @param oldval the value before the modification
+    * @param newval the value after the modification
     */
-   public SetStringRecord(int txnum, Block blk, int offset, String val) {
+   public SetStringRecord(int txnum, long prevlsn, Block blk, int offset, String oldval, String newval) {
       this.txnum = txnum;
+      this.prevlsn = prevlsn;
       this.blk = blk;
       this.offset = offset;
-      this.val = val;
+      this.oldval = oldval;
+      this.newval = newval;
    }
-   
+
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates a log record by reading seven other values from the log.
     * @param rec the basic log record
     */
    public SetStringRecord(BasicLogRecord rec) {
       txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
       String filename = rec.nextString();
       int blknum = rec.nextInt();
       blk = new Block(filename, blknum);
       offset = rec.nextInt();
-      val = rec.nextString();
+      oldval = rec.nextString();
+      newval = rec.nextString();
    }
-   
-   /** 
+
+   /**
     * Writes a setString record to the log.
     * This log record contains the SETSTRING operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename, number,
     * and offset of the modified block, and the previous
-    * string value at that offset.
+    * and new string values at that offset.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
-         blk.number(), offset, val};
+   public long writeToLog() {
+      Object[] rec = new Object[] {SETSTRING, txnum, prevlsn, blk.fileName(),
+         blk.number(), offset, oldval, newval};
       return logMgr.append(rec);
    }
-   
+
    public int op() {
       return SETSTRING;
    }
-   
+
    public int txNumber() {
       return txnum;
    }
-   
+
+   public Block block() {
+      return blk;
+   }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
+
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + prevlsn + " " + blk + " " + offset + " "
+         + oldval + " " + newval + ">";
    }
-   
-   /** 
-    * Replaces the specified data value with the value saved in the log record.
+
+   /**
+    * Replaces the specified data value with the old value saved in the log record.
     * The method pins a buffer to the specified block,
-    * calls setString to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
+    * writes a compensating log record on behalf of the
+    * undoing transaction, calls setString to restore the saved value,
+    * and unpins the buffer.
+    * Logging the undo allows it to be redone after a crash,
+    * just like any other update.
+    * The compensating record points to the same previous record
+    * as the undone one, so that following the chain from it
+    * skips the records that have already been undone.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
-      buff.setString(offset, val, txnum, -1);
+      LogRecord clr = new SetStringRecord(txnum, prevlsn, blk, offset, buff.getString(offset), oldval);
+      long lsn = clr.writeToLog();
+      buff.setString(offset, oldval, txnum, lsn);
       buffMgr.unpin(buff);
    }
+
+   /**
+    * Restores the old value saved in the log record
+    * in the specified page, after writing a compensating
+    * log record on behalf of the undoing transaction.
+    * The page may predate the modification, so the value
+    * being replaced is taken to be the record's new value
+    * rather than read from the page.
+    * @see simpledb.tx.recovery.UpdateRecord#undo(int, simpledb.file.Page)
+    */
+   public long undo(int txnum, Page pg) {
+      LogRecord clr = new SetStringRecord(txnum, prevlsn, blk, offset, newval, oldval);
+      long lsn = clr.writeToLog();
+      pg.setString(offset, oldval);
+      return lsn;
+   }
+
+   /**
+    * Reapplies the new value saved in the log record
+    * to the specified page.
+    * @see simpledb.tx.recovery.UpdateRecord#redo(simpledb.file.Page)
+    */
+   public void redo(Page pg) {
+      pg.setString(offset, newval);
+   }
 }
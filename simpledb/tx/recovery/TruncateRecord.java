@@ -0,0 +1,84 @@
+package simpledb.tx.recovery;
+
+import simpledb.log.BasicLogRecord;
+
+/**
+ * The TRUNCATE log record, written after a file is truncated.
+ * A truncation is not undone, and so the record belongs
+ * to no transaction.
+ * Recovery ignores the earlier log records of the removed blocks,
+ * since a block of the same number may since have been appended
+ * to the file again.
+ */
+class TruncateRecord implements LogRecord {
+   private String filename;
+   private int nblocks;
+   
+   /**
+    * Creates a new truncate record.
+    * @param filename the name of the truncated file
+    * @param nblocks the number of blocks that remain
+    */
+   public TruncateRecord(String filename, int nblocks) {
+      this.filename = filename;
+      this.nblocks = nblocks;
+   }
+   
+   /**
+    * Creates a log record by reading two other values from the log.
+    * @param rec the basic log record
+    */
+   public TruncateRecord(BasicLogRecord rec) {
+      filename = rec.nextString();
+      nblocks = rec.nextInt();
+   }
+   
+   /**
+    * Writes a truncate record to the log.
+    * This log record contains the TRUNCATE operator,
+    * followed by the filename and the number of
+    * blocks that remain.
+    * @return the LSN of the last log value
+    */
+   public long writeToLog() {
+      Object[] rec = new Object[] {TRUNCATE, filename, nblocks};
+      return logMgr.append(rec);
+   }
+   
+   public int op() {
+      return TRUNCATE;
+   }
+   
+   /**
+    * Truncate records have no associated transaction,
+    * and so the method returns a "dummy", negative txid.
+    */
+   public int txNumber() {
+      return -1; // dummy value
+   }
+   
+   /**
+    * Returns the name of the truncated file.
+    * @return the name of the file
+    */
+   public String fileName() {
+      return filename;
+   }
+   
+   /**
+    * Returns the number of blocks that remain in the file.
+    * @return the number of remaining blocks
+    */
+   public int blocks() {
+      return nblocks;
+   }
+   
+   /**
+    * Does nothing, because a truncation is not undone.
+    */
+   public void undo(int txnum) {}
+   
+   public String toString() {
+      return "<TRUNCATE " + filename + " " + nblocks + ">";
+   }
+}
@@ -1,79 +1,48 @@
 package simpledb.tx.recovery;
 
-import simpledb.server.SimpleDB;
-import simpledb.buffer.*;
 import simpledb.file.Block;
-import simpledb.log.BasicLogRecord;
+import simpledb.file.Page;
 
-class UpdateRecord implements LogRecord {
-   private int txnum;
-   private int newblknum = 0;
-   private Block blk,newblk;   
-   
+/**
+ * The interface implemented by the log records
+ * that modify a value in a block.
+ * In addition to undoing the modification
+ * through the buffer manager, these records can undo
+ * and redo it directly on a page holding the block's contents,
+ * which allows recovery to process different blocks
+ * in parallel.
+ */
+interface UpdateRecord extends LogRecord {
    /**
-    * Creates a new update log record.
-    * @param txnum the ID of the specified transaction
-    * @param blk the block containing the value
-    * @param offset the offset of the value in the block
-    * @param val the new value
+    * Returns the block modified by the log record.
+    * @return the modified block
     */
-   public UpdateRecord(int txnum, Block blk, Block newblk) {
-      this.txnum = txnum;
-      this.blk = blk;
-      this.newblk = newblk;
-   }
+   Block block();
    
    /**
-    * Creates a log record by reading five other values from the log.
-    * @param rec the basic log record
+    * Returns the LSN of the previous log record
+    * written by the same transaction.
+    * These LSNs chain each transaction's records together,
+    * ending at its START record.
+    * @return the LSN of the transaction's previous log record
     */
-   public UpdateRecord(BasicLogRecord rec) {
-      txnum = rec.nextInt();
-      String filename = rec.nextString();
-      int blknum = rec.nextInt();
-      blk = new Block(filename, blknum);
-	  String newfilename = rec.nextString();
-	  newblknum = rec.nextInt();
-	  newblk = new Block(newfilename, newblknum);
-   }
+   long prevLSN();
    
-   /** 
-    * Writes a update record to the log.
-    * This log record contains the UPDATE operator,
-    * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * string value at that offset.
-    * @return the LSN of the last log value
+   /**
+    * Undoes the modification in the specified page,
+    * which holds the contents of the modified block.
+    * A compensating log record is written on behalf of
+    * the undoing transaction.
+    * @param txnum the id of the transaction that is performing the undo
+    * @param pg the page holding the block's contents
+    * @return the LSN of the compensating log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {UPDATE, txnum, blk.fileName(),
-         blk.number(), newblk.fileName(),newblk.number()};
-      return logMgr.append(rec);
-   }
-   
-   public int op() {
-      return UPDATE;
-   }
+   long undo(int txnum, Page pg);
    
-   public int txNumber() {
-      return txnum;
-   }
-   
-   public String toString() {
-      return "<UPDATE " + txnum + " " + blk + " " + newblk + ">";
-   }
-   
-   /** 
-    * Replaces the specified data value with the value saved in the log record.
-    * The method pins a buffer to the specified block,
-    * calls setString to restore the saved value
-    * (using a dummy LSN), and unpins the buffer.
-    * @see simpledb.tx.recovery.LogRecord#undo(int)
+   /**
+    * Redoes the modification in the specified page,
+    * which holds the contents of the modified block.
+    * @param pg the page holding the block's contents
     */
-   public void undo(int txnum) {
-      BufferMgr buffMgr = SimpleDB.bufferMgr();
-      Buffer buff = buffMgr.pin(blk);
-      buff.restoreBlock(newblk);
-      buffMgr.unpin(buff);
-   }
+   void redo(Page pg);
 }